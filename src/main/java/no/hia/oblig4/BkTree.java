@@ -0,0 +1,137 @@
+package no.hia.oblig4;
+
+import java.util.Arrays;
+
+/**
+ * BK-tre over en fast liste med ord, for "mente du"-søk med Levenshtein-avstand.
+ *
+ * Hver node har barn nøklet på avstanden til noden. Siden avstanden er en
+ * metrikk, trenger et søk med toleranse k fra en node med avstand d bare
+ * barn med kant i [d - k, d + k], så bare en liten del av ordene sammenlignes.
+ *
+ * Avstanden regnes med to rader og et bånd på bredde 2k + 1, og avbrytes
+ * så snart hele raden er over grensen. Radene lages én gang per søk, så
+ * selve sammenligningene allokerer ingenting.
+ *
+ * Treet lagres som arrays: første barn, neste søsken og kantavstand per node.
+ */
+final class BkTree {
+
+    private final String[] words;
+    private final int[] firstChild;
+    private final int[] nextSibling;
+    private final int[] edge;
+    /** Største kant blant barna, for å vite hvor langt avstanden må regnes ut. */
+    private final int[] maxChildEdge;
+    private final int maxLength;
+
+    /** @param words ordene; indeksen i arrayen er ordets nummer i svarene */
+    BkTree(String[] words) {
+        this.words = words;
+        int n = words.length;
+        firstChild = new int[n];
+        nextSibling = new int[n];
+        edge = new int[n];
+        maxChildEdge = new int[n];
+        Arrays.fill(firstChild, -1);
+        Arrays.fill(nextSibling, -1);
+
+        int longest = 0;
+        for (String w : words) longest = Math.max(longest, w.length());
+        maxLength = longest;
+
+        int[] prev = new int[longest + 1];
+        int[] cur = new int[longest + 1];
+        for (int w = 1; w < n; w++) {
+            int node = 0;
+            while (true) {
+                int d = distance(words[w], words[node], Integer.MAX_VALUE, prev, cur);
+                int child = firstChild[node];
+                while (child >= 0 && edge[child] != d) child = nextSibling[child];
+                if (child >= 0) {
+                    node = child;
+                    continue;
+                }
+                edge[w] = d;
+                nextSibling[w] = firstChild[node];
+                firstChild[node] = w;
+                maxChildEdge[node] = Math.max(maxChildEdge[node], d);
+                break;
+            }
+        }
+    }
+
+    /**
+     * Ordene innen avstand {@code max} fra {@code query}, som (avstand &lt;&lt; 32) | ord,
+     * i stigende rekkefølge (nærmest først, så laveste ordnummer).
+     */
+    long[] search(String query, int max) {
+        if (words.length == 0) return new long[0];
+
+        int width = Math.max(query.length(), maxLength) + 1;
+        int[] prev = new int[width];
+        int[] cur = new int[width];
+        int[] stack = new int[words.length];
+        long[] found = new long[8];
+        int count = 0;
+
+        int top = 0;
+        stack[top++] = 0;
+        while (top > 0) {
+            int node = stack[--top];
+            // Trenger eksakt avstand opp til max + største kant; over det kan ingen barn passe
+            int limit = max + maxChildEdge[node];
+            int d = distance(query, words[node], limit, prev, cur);
+            if (d <= max) {
+                if (count == found.length) found = Arrays.copyOf(found, count * 2);
+                found[count++] = ((long) d << 32) | node;
+            }
+            if (d > limit) continue;
+
+            for (int c = firstChild[node]; c >= 0; c = nextSibling[c]) {
+                if (edge[c] >= d - max && edge[c] <= d + max) stack[top++] = c;
+            }
+        }
+
+        long[] out = Arrays.copyOf(found, count);
+        Arrays.sort(out);
+        return out;
+    }
+
+    /**
+     * Levenshtein-avstand mellom a og b, eller max + 1 hvis den er over max.
+     * Regner bare cellene innen max fra diagonalen, og bruker prev/cur som
+     * rader (minst b.length() + 1 lange).
+     */
+    static int distance(String a, String b, int max, int[] prev, int[] cur) {
+        int n = a.length(), m = b.length();
+        int over = max == Integer.MAX_VALUE ? max : max + 1;
+        if (Math.abs(n - m) > max) return over;
+        int band = Math.min(max, Math.max(n, m));
+
+        for (int j = 0; j <= m; j++) prev[j] = j <= band ? j : over;
+        for (int i = 1; i <= n; i++) {
+            int from = Math.max(1, i - band), to = Math.min(m, i + band);
+            cur[0] = i <= band ? i : over;
+            if (from > 1) cur[from - 1] = over;
+
+            char ca = a.charAt(i - 1);
+            int rowMin = cur[0];
+            for (int j = from; j <= to; j++) {
+                int v = prev[j - 1] + (ca == b.charAt(j - 1) ? 0 : 1);
+                if (prev[j] + 1 < v) v = prev[j] + 1;
+                if (cur[j - 1] + 1 < v) v = cur[j - 1] + 1;
+                if (v > over) v = over;
+                cur[j] = v;
+                if (v < rowMin) rowMin = v;
+            }
+            if (to < m) cur[to + 1] = over;
+            if (rowMin > max) return over;
+
+            int[] t = prev;
+            prev = cur;
+            cur = t;
+        }
+        return Math.min(prev[m], over);
+    }
+}
@@ -0,0 +1,270 @@
+package no.hia.oblig4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Connection Scan Algorithm (CSA) over rutetabellen.
+ *
+ * Hver strekning mellom to påfølgende stopp i en journey er en forbindelse.
+ * Forbindelsene ligger i parallelle int-arrays sortert på avgangstid, så
+ * tidligste ankomst er én skanning framover fra første avgang etter
+ * departAfter, og en full profil ("for hver avgang, beste ankomst") er én
+ * skanning bakover. Bytter skjer innen samme stoppested med en minste
+ * byttetid, som i {@link JourneyPlanner}.
+ */
+public final class ConnectionScan {
+
+    private static final int INF = Integer.MAX_VALUE;
+
+    private final DirectTripFinder finder;
+    private final int quays;
+
+    /* Per forbindelse, sortert på (avgang, hendelse). */
+    private final int[] connDeparture;
+    private final int[] connArrival;
+    private final int[] connFrom;
+    private final int[] connTo;
+    private final int[] connJourney;
+
+    /** Ett punkt i en profil: avgang fra startstedet og beste ankomst. */
+    public static final class ProfileEntry {
+        public final String fromQuayId;
+        public final String serviceJourneyId;
+        public final String line;
+        public final String departureTime;
+        public final String arrivalTime;
+        public final int durationMinutes;
+
+        ProfileEntry(String fromQuayId, String serviceJourneyId, String line, int departureSec, int arrivalSec) {
+            this.fromQuayId = fromQuayId;
+            this.serviceJourneyId = serviceJourneyId;
+            this.line = line;
+            this.departureTime = DirectTripFinder.formatTime(departureSec);
+            this.arrivalTime = DirectTripFinder.formatTime(arrivalSec);
+            this.durationMinutes = (arrivalSec - departureSec) / 60;
+        }
+    }
+
+    public ConnectionScan(DirectTripFinder finder) {
+        this.finder = finder;
+        this.quays = finder.quayIds.length;
+
+        // Forbindelse e -> e + 1 innen samme journey, med kjente tider og quays
+        int events = finder.eventQuay.length;
+        long[] keys = new long[events];
+        int n = 0;
+        for (int j = 0; j < finder.journeyIds.length; j++) {
+            for (int e = finder.journeyStart[j]; e + 1 < finder.journeyStart[j + 1]; e++) {
+                if (finder.eventQuay[e] < 0 || finder.eventQuay[e + 1] < 0) continue;
+                if (finder.eventDeparture[e] < 0 || finder.eventArrival[e + 1] < 0) continue;
+                keys[n++] = ((long) finder.eventDeparture[e] << 32) | e;
+            }
+        }
+        Arrays.sort(keys, 0, n);
+
+        connDeparture = new int[n];
+        connArrival = new int[n];
+        connFrom = new int[n];
+        connTo = new int[n];
+        connJourney = new int[n];
+        for (int i = 0; i < n; i++) {
+            int e = (int) keys[i];
+            connDeparture[i] = finder.eventDeparture[e];
+            connArrival[i] = finder.eventArrival[e + 1];
+            connFrom[i] = finder.eventQuay[e];
+            connTo[i] = finder.eventQuay[e + 1];
+            connJourney[i] = finder.eventJourney[e];
+        }
+
+        System.out.println("🔗 connectionScan: " + n + " forbindelser");
+    }
+
+    /**
+     * Tidligste ankomst til hver quay fra en av {@code origins}, med avreise
+     * tidligst {@code departAfter}. Ukjent/uoppnåelig er -1. Startquayene får
+     * departAfter. Er {@code targets} gitt, stopper skanningen så snart ingen
+     * senere avgang kan slå beste ankomst til et av dem.
+     */
+    public int[] earliestArrivals(int[] origins, int[] targets, int departAfter, int minTransferSeconds) {
+        return scan(origins, targets, departAfter, INF, minTransferSeconds);
+    }
+
+    /**
+     * Tidligste ankomst til hver quay innen {@code maxSeconds} etter
+     * departAfter (-1 ellers), for isokroner. Skanningen stopper ved første
+     * avgang etter tidsgrensen, så kostnaden er én lineær gjennomgang av
+     * forbindelsene i vinduet.
+     */
+    public int[] reachable(int[] origins, int departAfter, int maxSeconds, int minTransferSeconds) {
+        long limit = (long) departAfter + maxSeconds;
+        int until = limit >= INF ? INF : (int) limit;
+        int[] arrival = scan(origins, null, departAfter, until, minTransferSeconds);
+        for (int q = 0; q < arrival.length; q++) {
+            if (arrival[q] > until) arrival[q] = -1;
+        }
+        return arrival;
+    }
+
+    private int[] scan(int[] origins, int[] targets, int departAfter, int until, int minTransferSeconds) {
+        int[] arrival = new int[quays];
+        int[] ready = new int[quays];
+        Arrays.fill(arrival, INF);
+        Arrays.fill(ready, INF);
+        boolean[] onTrip = new boolean[finder.journeyIds.length];
+        boolean[] isTarget = new boolean[quays];
+        if (targets != null) for (int q : targets) isTarget[q] = true;
+
+        for (int q : origins) {
+            arrival[q] = departAfter;
+            ready[q] = departAfter;
+        }
+
+        int best = INF;
+        for (int c = DirectTripFinder.lowerBound(connDeparture, 0, connDeparture.length, departAfter);
+             c < connDeparture.length; c++) {
+            if (targets != null && connDeparture[c] >= best) break;
+            if (connDeparture[c] > until) break;
+
+            int j = connJourney[c];
+            if (!onTrip[j] && ready[connFrom[c]] > connDeparture[c]) continue;
+            onTrip[j] = true;
+
+            int to = connTo[c];
+            int a = connArrival[c];
+            if (a >= arrival[to]) continue;
+            arrival[to] = a;
+
+            // Bytte innen stoppestedet etter minste byttetid
+            int t = a + minTransferSeconds;
+            StopRegistry stops = finder.stops;
+            if (to < stops.size()) {
+                int place = stops.placeOf(to);
+                for (int k = stops.placeStart(place); k < stops.placeEnd(place); k++) {
+                    int q = stops.placeQuay(k);
+                    if (t < ready[q]) ready[q] = t;
+                }
+            } else if (t < ready[to]) {
+                ready[to] = t;
+            }
+
+            if (isTarget[to] && a < best) best = a;
+        }
+
+        for (int q = 0; q < quays; q++) {
+            if (arrival[q] == INF) arrival[q] = -1;
+        }
+        return arrival;
+    }
+
+    /** Tidligste ankomst til en av {@code targets}, eller -1. */
+    public int earliestArrival(int[] origins, int[] targets, int departAfter, int minTransferSeconds) {
+        int[] arrival = earliestArrivals(origins, targets, departAfter, minTransferSeconds);
+        int best = -1;
+        for (int q : targets) {
+            if (arrival[q] >= 0 && (best < 0 || arrival[q] < best)) best = arrival[q];
+        }
+        return best;
+    }
+
+    /**
+     * Profil: for hver avgang fra en av {@code origins} i [from, to] den
+     * beste ankomsten til en av {@code targets}, uten avganger som er
+     * dominert av en senere avgang med like tidlig ankomst. Sortert på
+     * avgangstid.
+     *
+     * Skanner forbindelsene bakover fra siste avgang. Hver quay har en
+     * profil med (avgang, ankomst) der begge synker etter hvert som
+     * punkter legges til, så oppslag "beste ankomst ved avreise &gt;= t"
+     * er et binærsøk.
+     */
+    public List<ProfileEntry> profile(int[] origins, int[] targets, int from, int to, int minTransferSeconds) {
+        boolean[] isTarget = new boolean[quays];
+        for (int q : targets) isTarget[q] = true;
+        boolean[] isOrigin = new boolean[quays];
+        for (int q : origins) isOrigin[q] = true;
+
+        int[] tripArrival = new int[finder.journeyIds.length];
+        Arrays.fill(tripArrival, INF);
+
+        // Profil per quay; opprettes første gang quayen får et punkt
+        IntList[] profDep = new IntList[quays];
+        IntList[] profArr = new IntList[quays];
+
+        List<long[]> found = new ArrayList<>();
+        int first = DirectTripFinder.lowerBound(connDeparture, 0, connDeparture.length, Math.max(0, from));
+        StopRegistry stops = finder.stops;
+
+        for (int c = connDeparture.length - 1; c >= first; c--) {
+            int j = connJourney[c];
+            int toQ = connTo[c];
+
+            int best = isTarget[toQ] ? connArrival[c] : INF;
+            if (tripArrival[j] < best) best = tripArrival[j];
+
+            int t = connArrival[c] + minTransferSeconds;
+            if (toQ < stops.size()) {
+                int place = stops.placeOf(toQ);
+                for (int k = stops.placeStart(place); k < stops.placeEnd(place); k++) {
+                    int a = evaluate(profDep[stops.placeQuay(k)], profArr[stops.placeQuay(k)], t);
+                    if (a < best) best = a;
+                }
+            } else {
+                int a = evaluate(profDep[toQ], profArr[toQ], t);
+                if (a < best) best = a;
+            }
+
+            if (best == INF) continue;
+            tripArrival[j] = best;
+
+            int fromQ = connFrom[c];
+            IntList deps = profDep[fromQ];
+            if (deps == null) {
+                deps = profDep[fromQ] = new IntList(8);
+                profArr[fromQ] = new IntList(8);
+            }
+            IntList arrs = profArr[fromQ];
+            int n = deps.size();
+            if (n > 0 && arrs.get(n - 1) <= best) continue;
+
+            if (n > 0 && deps.get(n - 1) == connDeparture[c]) {
+                arrs.set(n - 1, best);
+            } else {
+                deps.add(connDeparture[c]);
+                arrs.add(best);
+            }
+            if (isOrigin[fromQ] && connDeparture[c] <= to) {
+                found.add(new long[] { connDeparture[c], best, fromQ, j });
+            }
+        }
+
+        // Slå sammen startquayene: behold bare avganger som ikke er dominert av en senere
+        found.sort((a, b) -> a[0] != b[0] ? Long.compare(b[0], a[0]) : Long.compare(a[1], b[1]));
+        List<ProfileEntry> out = new ArrayList<>();
+        long bestArr = Long.MAX_VALUE;
+        for (long[] f : found) {
+            if (f[1] >= bestArr) continue;
+            bestArr = f[1];
+            int j = (int) f[3];
+            out.add(new ProfileEntry(finder.quayIds[(int) f[2]], finder.journeyIds[j],
+                    finder.journeyLines[j], (int) f[0], (int) f[1]));
+        }
+        Collections.reverse(out);
+        return out;
+    }
+
+    /** Beste ankomst ved avreise tidligst t fra en profil (avgang synkende), INF hvis ingen. */
+    private static int evaluate(IntList deps, IntList arrs, int t) {
+        if (deps == null) return INF;
+        // Siste punkt med avgang >= t har lavest ankomst
+        int lo = 0, hi = deps.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (deps.get(mid) >= t) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo == 0 ? INF : arrs.get(lo - 1);
+    }
+}
@@ -1,13 +1,31 @@
 package no.hia.oblig4;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Random;
-
+import java.time.Clock;
+import java.time.ZoneId;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Simulerte forsinkelser for turer.
+ *
+ * Forsinkelsen er en ren funksjon av turnøkkelen (journey, avgangstid,
+ * start og mål), tjenestedatoen og frøet: nøkkelen hashes til 64 bit og
+ * brukes som frø for en SplittableRandom. Samme tur får dermed samme
+ * forsinkelse hele dagen, fra alle tråder og på alle noder, uten låser og
+ * uten noe kart som vokser. Ny dag gir nye forsinkelser.
+ *
+ * En begrenset cache kan slås på i konstruktøren hvis modellen blir dyr.
+ * Den er direkte-mappet på hashen (et nytt oppslag overskriver det gamle i
+ * samme plass), så den tar aldri mer enn det oppgitte antallet plasser.
+ */
 public class DelaySimulator {
 
-    private final Random random;
-    private final Map<String, DelayInfo> cache = new HashMap<>();
+    private static final DelayInfo NONE = new DelayInfo(0, null, null);
+
+    private final long seed;
+    private final Clock clock;
+    /** Null når cachen er av. Lengden er en toerpotens. */
+    private final AtomicReferenceArray<CacheEntry> cache;
 
     public static class DelayInfo {
         public final int delayMinutes;
@@ -21,47 +39,88 @@ public class DelaySimulator {
         }
     }
 
-    public DelaySimulator() {
+    private record CacheEntry(long key, DelayInfo info) {
+    }
 
-        this.random = new Random();
+    /** Frø 0 og norsk tjenestedato, uten cache. */
+    public DelaySimulator() {
+        this(0L);
     }
 
     public DelaySimulator(long seed) {
+        this(seed, Clock.system(ZoneId.of("Europe/Oslo")), 0);
+    }
 
-        this.random = new Random(seed);
+    /**
+     * @param clock        gir tjenestedatoen (dato i klokkas tidssone)
+     * @param cacheEntries antall plasser i cachen, 0 for ingen; rundes opp til toerpotens
+     */
+    public DelaySimulator(long seed, Clock clock, int cacheEntries) {
+        this.seed = seed;
+        this.clock = clock;
+        this.cache = cacheEntries > 0
+                ? new AtomicReferenceArray<>(Integer.highestOneBit(Math.min(cacheEntries, 1 << 24) * 2 - 1))
+                : null;
     }
 
 
     public DelayInfo getDelay(DirectTripFinder.Trip t, String startId, String destId) {
         if (t == null) {
-            return new DelayInfo(0, null, null);
+            return NONE;
         }
 
-        String key = makeKey(t, startId, destId);
-        DelayInfo existing = cache.get(key);
-        if (existing != null) {
-            return existing;
+        long key = key(t, startId, destId, serviceDay());
+
+        int slot = -1;
+        if (cache != null) {
+            slot = (int) (key ^ (key >>> 32)) & (cache.length() - 1);
+            CacheEntry e = cache.get(slot);
+            if (e != null && e.key == key) return e.info;
         }
 
-        int delay = randomDelayMinutes();
+        int delay = delayMinutes(new SplittableRandom(key));
         String newDep = addMinutes(t.departureTime, delay);
         String newArr = addMinutes(t.arrivalTime, delay);
-
         DelayInfo info = new DelayInfo(delay, newDep, newArr);
-        cache.put(key, info);
+
+        if (cache != null) cache.set(slot, new CacheEntry(key, info));
         return info;
     }
 
 
-    private String makeKey(DirectTripFinder.Trip t, String startId, String destId) {
-        return (t.serviceJourneyId != null ? t.serviceJourneyId : "?") + "|" +
-                (t.departureTime != null ? t.departureTime : "?") + "|" +
-                (startId != null ? startId : "?") + "|" +
-                (destId != null ? destId : "?");
+    /** Tjenestedatoen forsinkelsene gjelder for, som epoch-dag. Del av cache-nøkler for svar med forsinkelser. */
+    public long serviceDay() {
+        return clock.instant().atZone(clock.getZone()).toLocalDate().toEpochDay();
+    }
+
+    /** FNV-1a over feltene (med skilletegn, og egen markør for null), blandet med frø og dato. */
+    private long key(DirectTripFinder.Trip t, String startId, String destId, long serviceDay) {
+        long h = 0xcbf29ce484222325L;
+        h = hash(h, t.serviceJourneyId);
+        h = hash(h, t.departureTime);
+        h = hash(h, startId);
+        h = hash(h, destId);
+        return mix(h ^ mix(seed + serviceDay * 0x9e3779b97f4a7c15L));
+    }
+
+    private static long hash(long h, String s) {
+        if (s == null) {
+            h = (h ^ 0xff) * 0x100000001b3L;
+        } else {
+            for (int i = 0; i < s.length(); i++) h = (h ^ s.charAt(i)) * 0x100000001b3L;
+        }
+        return (h ^ '|') * 0x100000001b3L;
+    }
+
+    /** Sluttblanding fra SplitMix64. */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
     }
 
 
-    private int randomDelayMinutes() {
+    private static int delayMinutes(SplittableRandom random) {
         int r = random.nextInt(20); // 0–19
 
         if (r < 10) {          // 0–9
@@ -78,7 +137,7 @@ public class DelaySimulator {
     }
 
 
-    private String addMinutes(String time, int minutes) {
+    private static String addMinutes(String time, int minutes) {
         if (time == null || minutes == 0) return time;
         String[] parts = time.split(":");
         if (parts.length < 2) return time;
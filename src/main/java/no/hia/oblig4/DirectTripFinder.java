@@ -1,12 +1,60 @@
 package no.hia.oblig4;
 
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
 
 public class DirectTripFinder {
-    private final Map<String, List<Map<String, Object>>> byService = new HashMap<>();
+
+    private static final String UNKNOWN_DIRECTION = "ukjent retning";
+
+    /*
+     * Kolonnelayout: i stedet for ett Map-objekt per stopp-hendelse holder vi
+     * rutetabellen i parallelle int-arrays. Hendelsene til én service journey
+     * ligger etter hverandre, sortert på stop_sequence, i området
+     * [journeyStart[j], journeyStart[j + 1]).
+     */
+
+    /**
+     * Quay-id per quay-indeks. Indeksene er de samme som i {@link StopRegistry};
+     * quays som bare finnes i rutetabellen får numre etter registerets stopp.
+     */
+    final String[] quayIds;
+    final StopRegistry stops;
+    private final Map<String, Integer> extraQuayIndex = new HashMap<>();
+
+    /** Per service journey. Linjenummer er løst opp én gang ved innlasting. */
+    final String[] journeyIds;
+    final String[] journeyLines;
+    final int[] journeyStart;
+
+    /** Per stopp-hendelse. Tider er sekunder etter midnatt, -1 = ukjent. */
+    final int[] eventQuay;
+    final int[] eventArrival;
+    final int[] eventDeparture;
+    final int[] eventSequence;
+    /** Indeks inn i {@link #directions}, ferdig løst opp ved innlasting. */
+    final int[] eventDirection;
+    final String[] directions;
+    /** Hvilken journey hendelsen tilhører. */
+    final int[] eventJourney;
+
+    /*
+     * Invertert indeks quay -> postings. Postingene for quay q ligger i
+     * postingEvent[postingStart[q] .. postingStart[q + 1]) og er hendelses-
+     * indekser sortert på journey og deretter posisjon i journeyen.
+     */
+    final int[] postingStart;
+    final int[] postingEvent;
+
+    /*
+     * Avganger per quay sortert på avgangstid: for quay q ligger de i
+     * [departureStart[q], departureStart[q + 1]). Bare første besøk per journey
+     * er med, og tidene ligger i en egen array så binærsøket blir billig.
+     * Avganger uten tid ligger sist (Integer.MAX_VALUE).
+     */
+    final int[] departureStart;
+    final int[] departureEvent;
+    final int[] departureTime;
 
     public static class Trip {
         public final String serviceJourneyId;
@@ -35,112 +83,628 @@ public class DirectTripFinder {
         }
     }
 
+    /**
+     * Rå kolonner slik de leses fra JSON eller fra et binært snapshot
+     * (se {@link TimetableSnapshot}). Indeksene bygges av konstruktøren.
+     */
+    record Columns(String[] quayIds,
+                   String[] journeyIds,
+                   String[] journeyLines,
+                   String[] directions,
+                   int[] journeyStart,
+                   int[] eventQuay,
+                   int[] eventArrival,
+                   int[] eventDeparture,
+                   int[] eventSequence,
+                   int[] eventDirection) {
+    }
+
     public DirectTripFinder(String journeysJsonPath) throws Exception {
-        String json = Files.readString(Path.of(journeysJsonPath), StandardCharsets.UTF_8);
+        this(journeysJsonPath, StopRegistry.EMPTY);
+    }
+
+    public DirectTripFinder(String journeysJsonPath, StopRegistry stops) throws Exception {
+        this(parseJson(Path.of(journeysJsonPath)), stops);
+    }
+
+    DirectTripFinder(Columns c, StopRegistry stops) {
+        this.stops     = stops;
+        journeyIds     = c.journeyIds();
+        journeyLines   = c.journeyLines();
+        directions     = c.directions();
+        journeyStart   = c.journeyStart();
+        eventArrival   = c.eventArrival();
+        eventDeparture = c.eventDeparture();
+        eventSequence  = c.eventSequence();
+        eventDirection = c.eventDirection();
+
+        // Oversett rutetabellens egne quay-numre til registerets nummerering
+        int[] remap = new int[c.quayIds().length];
+        List<String> all = new ArrayList<>(stops.size() + remap.length);
+        for (int i = 0; i < stops.size(); i++) all.add(stops.id(i));
+        for (int q = 0; q < remap.length; q++) {
+            String id = c.quayIds()[q];
+            int r = stops.indexOf(id);
+            if (r < 0) {
+                r = all.size();
+                all.add(id);
+                extraQuayIndex.put(id, r);
+            }
+            remap[q] = r;
+        }
+        quayIds = all.toArray(new String[0]);
 
-        @SuppressWarnings("unchecked")
-        List<Map<String, Object>> rows =
-                (List<Map<String, Object>>) StopSearch.MiniJson.parse(json);
+        int events = c.eventQuay().length;
+        eventQuay = new int[events];
+        for (int e = 0; e < events; e++) {
+            int q = c.eventQuay()[e];
+            eventQuay[e] = q < 0 ? -1 : remap[q];
+        }
 
+        eventJourney = new int[events];
+        for (int j = 0; j < journeyIds.length; j++) {
+            Arrays.fill(eventJourney, journeyStart[j], journeyStart[j + 1], j);
+        }
 
-        for (Map<String, Object> row : rows) {
-            String sid = (String) row.get("service_journey_id");
-            if (sid == null) continue;
-            byService.computeIfAbsent(sid, k -> new ArrayList<>()).add(row);
+        // Tellesortering på quay; hendelsene er allerede i (journey, posisjon)-rekkefølge
+        postingStart = new int[quayIds.length + 1];
+        for (int e = 0; e < events; e++) {
+            if (eventQuay[e] >= 0) postingStart[eventQuay[e] + 1]++;
+        }
+        for (int q = 0; q < quayIds.length; q++) postingStart[q + 1] += postingStart[q];
+        postingEvent = new int[postingStart[quayIds.length]];
+        int[] next = Arrays.copyOf(postingStart, quayIds.length);
+        for (int e = 0; e < events; e++) {
+            if (eventQuay[e] >= 0) postingEvent[next[eventQuay[e]]++] = e;
         }
 
+        // Avgangstavle per quay: første besøk per journey, sortert på (tid, hendelse)
+        departureStart = new int[quayIds.length + 1];
+        IntList firstVisits = new IntList(postingEvent.length);
+        for (int q = 0; q < quayIds.length; q++) {
+            int before = firstVisits.size();
+            int prevJourney = -1;
+            for (int i = postingStart[q]; i < postingStart[q + 1]; i++) {
+                int e = postingEvent[i];
+                if (eventJourney[e] == prevJourney) continue;
+                prevJourney = eventJourney[e];
+                firstVisits.add(e);
+            }
+            departureStart[q + 1] = firstVisits.size();
 
-        for (List<Map<String, Object>> list : byService.values()) {
-            list.sort(Comparator.comparingInt(m -> asInt(m.get("stop_sequence"))));
+            long[] keys = new long[firstVisits.size() - before];
+            for (int k = 0; k < keys.length; k++) {
+                int e = firstVisits.get(before + k);
+                keys[k] = ((long) departureKey(e) << 32) | e;
+            }
+            Arrays.sort(keys);
+            for (int k = 0; k < keys.length; k++) firstVisits.set(before + k, (int) keys[k]);
+        }
+        departureEvent = firstVisits.toArray();
+        departureTime = new int[departureEvent.length];
+        for (int i = 0; i < departureEvent.length; i++) {
+            departureTime[i] = departureKey(departureEvent[i]);
         }
     }
 
+    private int departureKey(int e) {
+        return eventDeparture[e] < 0 ? Integer.MAX_VALUE : eventDeparture[e];
+    }
 
-    public List<Trip> findTrips(String startQuayId, String stopQuayId) {
-        List<Trip> trips = new ArrayList<>();
+    /**
+     * Åpner rutetabellen fra binært snapshot hvis det finnes og er ferskt,
+     * ellers parses JSON-fila som før.
+     */
+    public static DirectTripFinder open(String journeysJsonPath, String snapshotPath,
+                                        StopRegistry stops) throws Exception {
+        return new DirectTripFinder(readColumns(journeysJsonPath, snapshotPath), stops);
+    }
+
+    /**
+     * Leser bare kolonnene (snapshot eller JSON). Avhenger ikke av stoppregisteret,
+     * så det kan kjøres parallelt med innlasting av stoppene.
+     */
+    static Columns readColumns(String journeysJsonPath, String snapshotPath) throws Exception {
+        Columns c = TimetableSnapshot.readTrips(Path.of(snapshotPath), Path.of(journeysJsonPath));
+        if (c != null) {
+            System.out.println("⚡ directTripFinder: lastet fra snapshot " + snapshotPath);
+            return c;
+        }
+        return parseJson(Path.of(journeysJsonPath));
+    }
 
-        for (Map.Entry<String, List<Map<String, Object>>> e : byService.entrySet()) {
-            String sid = e.getKey();
-            List<Map<String, Object>> stops = e.getValue();
+    /** Quay-indeks (samme som i {@link StopRegistry}) for en NSR:Quay-id, eller -1. */
+    public int quayIndexOf(String quayId) {
+        int i = stops.indexOf(quayId);
+        if (i >= 0) return i;
+        Integer extra = quayId == null ? null : extraQuayIndex.get(quayId);
+        return extra == null ? -1 : extra;
+    }
 
-            Integer startIdx = null;
-            Integer stopIdx  = null;
+    /** Quay-indekser for en liste med quay-id-er; ukjente hoppes over. */
+    public int[] quayIndexes(List<String> quayIds) {
+        IntList out = new IntList(quayIds.size());
+        for (String id : quayIds) {
+            int q = quayIndexOf(id);
+            if (q >= 0) out.add(q);
+        }
+        return out.toArray();
+    }
 
-            for (int i = 0; i < stops.size(); i++) {
-                String qid = (String) stops.get(i).get("quay_id");
-                if (qid == null) continue;
-                if (qid.equals(startQuayId) && startIdx == null) {
-                    startIdx = i;
-                }
-                if (qid.equals(stopQuayId)) {
-                    stopIdx = i;
+    static Columns parseJson(Path journeysJsonPath) throws Exception {
+        Map<String, Integer> journeyIndex = new LinkedHashMap<>();
+        Map<String, Integer> directionIndex = new LinkedHashMap<>();
+        Map<String, Integer> quayIndex = new LinkedHashMap<>();
+
+        // Rader i fil-rekkefølge; grupperes per journey etterpå
+        IntList rowJourney = new IntList(4096);
+        IntList rowQuay    = new IntList(4096);
+        IntList rowArr     = new IntList(4096);
+        IntList rowDep     = new IntList(4096);
+        IntList rowSeq     = new IntList(4096);
+        IntList rowExtra1  = new IntList(4096);
+
+        try (JsonPullReader r = JsonPullReader.open(journeysJsonPath)) {
+            r.beginArray();
+            while (r.hasNext()) {
+                String sid = null, quayId = null, arr = null, dep = null, extra1 = null;
+                int seq = 0;
+
+                r.beginObject();
+                while (r.hasNext()) {
+                    switch (r.nextName()) {
+                        case "service_journey_id" -> sid    = r.nextString();
+                        case "quay_id"            -> quayId = r.nextString();
+                        case "arrival_time"       -> arr    = r.nextString();
+                        case "departure_time"     -> dep    = r.nextString();
+                        case "stop_sequence"      -> seq    = r.nextInt();
+                        case "extra1"             -> extra1 = r.nextString();
+                        default                   -> r.skipValue();
+                    }
                 }
+                r.endObject();
+
+                if (sid == null) continue;
+
+                rowJourney.add(journeyIndex.computeIfAbsent(sid, k -> journeyIndex.size()));
+                rowQuay.add(quayId == null ? -1
+                        : quayIndex.computeIfAbsent(quayId, k -> quayIndex.size()));
+                rowArr.add(parseTimeToSeconds(arr));
+                rowDep.add(parseTimeToSeconds(dep));
+                rowSeq.add(seq);
+                rowExtra1.add(extra1 == null ? -1
+                        : directionIndex.computeIfAbsent(extra1, k -> directionIndex.size()));
             }
+            r.endArray();
+        }
 
+        int journeys = journeyIndex.size();
+        int events = rowJourney.size();
 
-            if (startIdx == null || stopIdx == null || startIdx >= stopIdx) continue;
+        String[] journeyIds = journeyIndex.keySet().toArray(new String[0]);
+        String[] journeyLines = new String[journeys];
+        for (int j = 0; j < journeys; j++) {
+            journeyLines[j] = extractLineNumber(journeyIds[j]);
+        }
 
-            Map<String, Object> startRow = stops.get(startIdx);
-            Map<String, Object> stopRow  = stops.get(stopIdx);
+        // Tellesortering på journey, deretter sortering på stop_sequence innen hver journey
+        int[] journeyStart = new int[journeys + 1];
+        for (int i = 0; i < events; i++) journeyStart[rowJourney.get(i) + 1]++;
+        for (int j = 0; j < journeys; j++) journeyStart[j + 1] += journeyStart[j];
 
-            String dep = toStr(startRow.get("departure_time"));
-            String arr = toStr(stopRow.get("arrival_time"));
+        long[] order = new long[events];
+        int[] fill = Arrays.copyOf(journeyStart, journeys);
+        for (int i = 0; i < events; i++) {
+            // stop_sequence i de høye bitene, radnummer i de lave
+            order[fill[rowJourney.get(i)]++] = ((long) rowSeq.get(i) << 32) | i;
+        }
+        for (int j = 0; j < journeys; j++) {
+            Arrays.sort(order, journeyStart[j], journeyStart[j + 1]);
+        }
 
+        int[] eventQuay      = new int[events];
+        int[] eventArrival   = new int[events];
+        int[] eventDeparture = new int[events];
+        int[] eventSequence  = new int[events];
+        int[] extra1         = new int[events];
+        for (int e = 0; e < events; e++) {
+            int row = (int) order[e];
+            eventQuay[e]      = rowQuay.get(row);
+            eventArrival[e]   = rowArr.get(row);
+            eventDeparture[e] = rowDep.get(row);
+            eventSequence[e]  = rowSeq.get(row);
+            extra1[e]         = rowExtra1.get(row);
+        }
 
-            int stopsBeforeDest = Math.max(0, stopIdx - startIdx - 1);
+        List<String> dirs = new ArrayList<>(directionIndex.keySet());
+        dirs.add(UNKNOWN_DIRECTION);
+        String[] directions = dirs.toArray(new String[0]);
+        int[] eventDirection = resolveDirections(journeyStart, extra1, directions.length - 1);
 
+        return new Columns(quayIndex.keySet().toArray(new String[0]), journeyIds, journeyLines,
+                directions, journeyStart, eventQuay, eventArrival, eventDeparture,
+                eventSequence, eventDirection);
+    }
+
+    /**
+     * Retning for en tur som slutter ved hendelse e: extra1 på avstigningsraden
+     * hvis den finnes, ellers første extra1 i journeyen, ellers "ukjent retning".
+     */
+    private static int[] resolveDirections(int[] journeyStart, int[] extra1, int unknown) {
+        int[] out = new int[extra1.length];
+        for (int j = 0; j + 1 < journeyStart.length; j++) {
+            int fallback = unknown;
+            for (int e = journeyStart[j]; e < journeyStart[j + 1]; e++) {
+                if (extra1[e] >= 0) { fallback = extra1[e]; break; }
+            }
+            for (int e = journeyStart[j]; e < journeyStart[j + 1]; e++) {
+                out[e] = extra1[e] >= 0 ? extra1[e] : fallback;
+            }
+        }
+        return out;
+    }
 
-            String line = extractLineNumber(sid);
-            String direction = null;
+    /** Kolonnene slik de ble lest inn, for {@link TimetableSnapshot}. */
+    Columns columns() {
+        return new Columns(quayIds, journeyIds, journeyLines, directions, journeyStart,
+                eventQuay, eventArrival, eventDeparture, eventSequence, eventDirection);
+    }
 
-            Object extra1Stop = stopRow.get("extra1");
-            if (extra1Stop != null) {
-                direction = extra1Stop.toString();
-            } else {
 
-                for (Map<String, Object> r : stops) {
-                    if (r.get("extra1") != null) {
-                        direction = r.get("extra1").toString();
-                        break;
-                    }
+    /**
+     * Tidsvindu og sideinndeling for turspørringer. Tider er sekunder etter
+     * midnatt, -1 betyr "ingen grense". limit &lt;= 0 betyr "alle".
+     * Cursor er verdien fra {@link TripPage#nextCursor} i forrige side.
+     */
+    public static final class TripWindow {
+        public static final TripWindow ALL_DAY = new TripWindow(-1, -1, 0, null);
+
+        public final int departAfter;
+        public final int arriveBefore;
+        public final int limit;
+        public final String cursor;
+
+        public TripWindow(int departAfter, int arriveBefore, int limit, String cursor) {
+            this.departAfter = departAfter;
+            this.arriveBefore = arriveBefore;
+            this.limit = limit;
+            this.cursor = cursor;
+        }
+    }
+
+    /** Én side med turer. nextCursor er null når det ikke finnes flere. */
+    public static final class TripPage {
+        public final List<Trip> trips;
+        public final String nextCursor;
+
+        public TripPage(List<Trip> trips, String nextCursor) {
+            this.trips = trips;
+            this.nextCursor = nextCursor;
+        }
+    }
+
+    /** Alle direkte turer denne dagen mellom to quays, sortert på avgangstid. */
+    public List<Trip> findTrips(String startQuayId, String stopQuayId) {
+        return findTrips(startQuayId, stopQuayId, TripWindow.ALL_DAY).trips;
+    }
+
+    /**
+     * Direkte turer innenfor et tidsvindu, sortert på avgangstid.
+     *
+     * Avgangene fra start-quayen ligger sortert på tid, så vi binærsøker oss
+     * fram til første avgang etter departAfter og går framover til vi har
+     * limit turer. For hver avgang sjekkes det med binærsøk i stopp-quayens
+     * postings om journeyen kommer dit senere. Kostnad O(log n + m log p),
+     * der m er antall avganger som besøkes og p antall postings på
+     * stopp-quayen. m er ikke antall treff: betjenes stopp-quayen sjelden fra
+     * start-quayen, går løkka gjennom resten av avgangene (m nær n) for å
+     * finne limit treff, eller ingen.
+     */
+    public TripPage findTrips(String startQuayId, String stopQuayId, TripWindow window) {
+        int startQ = quayIndexOf(startQuayId);
+        int stopQ  = quayIndexOf(stopQuayId);
+        List<Trip> trips = new ArrayList<>();
+        if (startQ < 0 || stopQ < 0) return new TripPage(trips, null);
+
+        int lo = departureStart[startQ], hi = departureStart[startQ + 1];
+        int from = window.cursor != null
+                ? lo + decodeCursor(window.cursor)
+                : lowerBound(departureTime, lo, hi, window.departAfter < 0 ? 0 : window.departAfter);
+        from = Math.max(lo, Math.min(from, hi));
+
+        for (int i = from; i < hi; i++) {
+            if (window.departAfter >= 0 && departureTime[i] < window.departAfter) continue;
+
+            int startIdx = departureEvent[i];
+            int stopIdx = lastVisitAfter(stopQ, startIdx);
+            if (stopIdx < 0) continue;
+            if (window.arriveBefore >= 0
+                    && (eventArrival[stopIdx] < 0 || eventArrival[stopIdx] > window.arriveBefore)) continue;
+
+            trips.add(toTrip(eventJourney[startIdx], startIdx, stopIdx));
+
+            if (window.limit > 0 && trips.size() >= window.limit) {
+                return new TripPage(trips, i + 1 < hi ? encodeCursor(i + 1 - lo) : null);
+            }
+        }
+        return new TripPage(trips, null);
+    }
+
+    /** Én avgang på avgangstavla til en quay. */
+    public static final class Departure {
+        public final String serviceJourneyId;
+        public final String line;
+        public final String direction;
+        /** Navnet på siste stopp i journeyen, eller null hvis det er ukjent. */
+        public final String destination;
+        public final String departureTime;
+
+        Departure(String serviceJourneyId, String line, String direction, String destination, String departureTime) {
+            this.serviceJourneyId = serviceJourneyId;
+            this.line = line;
+            this.direction = direction;
+            this.destination = destination;
+            this.departureTime = departureTime;
+        }
+    }
+
+    /**
+     * Avgangstavle: de neste {@code limit} avgangene fra quayen tidligst ved
+     * {@code after} (sekunder etter midnatt). Leses rett ut av den sorterte
+     * avgangslista, så kostnaden er ett binærsøk pluss limit steg. Journeys
+     * som slutter på quayen er ankomster og tas ikke med.
+     */
+    public List<Departure> departures(String quayId, int after, int limit) {
+        int q = quayIndexOf(quayId);
+        List<Departure> out = new ArrayList<>(Math.max(0, Math.min(limit, 64)));
+        if (q < 0) return out;
+
+        int hi = departureStart[q + 1];
+        for (int i = lowerBound(departureTime, departureStart[q], hi, Math.max(0, after));
+             i < hi && out.size() < limit && departureTime[i] != Integer.MAX_VALUE; i++) {
+            int e = departureEvent[i];
+            int j = eventJourney[e];
+            int last = journeyStart[j + 1] - 1;
+            if (e == last) continue;
+
+            int lastQuay = eventQuay[last];
+            out.add(new Departure(journeyIds[j], journeyLines[j], directions[eventDirection[last]],
+                    lastQuay >= 0 && lastQuay < stops.size() ? stops.name(lastQuay) : null,
+                    formatTime(departureTime[i])));
+        }
+        return out;
+    }
+
+    /** Seneste avgangstid fra quayen (sekunder, kan være &gt;= 24:00:00); -1 hvis ingen. */
+    public int lastDeparture(String quayId) {
+        int q = quayIndexOf(quayId);
+        if (q < 0) return -1;
+        for (int i = departureStart[q + 1] - 1; i >= departureStart[q]; i--) {
+            if (departureTime[i] != Integer.MAX_VALUE) return departureTime[i];
+        }
+        return -1;
+    }
+
+    /** Direkte turer for ett quay-par i et søk mellom to stoppesteder. */
+    public static final class PairTrips {
+        public final String fromQuayId;
+        public final String toQuayId;
+        public final List<Trip> trips;
+
+        PairTrips(String fromQuayId, String toQuayId, List<Trip> trips) {
+            this.fromQuayId = fromQuayId;
+            this.toQuayId = toQuayId;
+            this.trips = trips;
+        }
+    }
+
+    /**
+     * Direkte turer fra en hvilken som helst av {@code fromQuays} til en
+     * hvilken som helst av {@code toQuays} (quay-indekser, typisk alle quays
+     * på to stoppesteder), i én gjennomgang av avgangene fra fra-quayene.
+     * For hver avgang går vi bakover gjennom resten av journeyen, så hvert
+     * mål-quay får siste besøk som i {@link #findTrips}.
+     *
+     * Parene som har turer rangeres: flest turer først, deretter tidligste
+     * avgang. departAfter, arriveBefore og limit (per par) gjelder; cursor
+     * brukes ikke her.
+     */
+    public List<PairTrips> findTripsBetween(int[] fromQuays, int[] toQuays, TripWindow window) {
+        int[] targetSlot = new int[quayIds.length];
+        for (int t = 0; t < toQuays.length; t++) targetSlot[toQuays[t]] = t + 1;
+
+        // Par (fra-posisjon, til-posisjon) -> liste med (påstigning, avstigning)
+        IntList[] buckets = new IntList[fromQuays.length * toQuays.length];
+        int[] seen = new int[toQuays.length];
+        int stamp = 0;
+
+        for (int f = 0; f < fromQuays.length; f++) {
+            int q = fromQuays[f];
+            int lo = departureStart[q], hi = departureStart[q + 1];
+            int from = lowerBound(departureTime, lo, hi, window.departAfter < 0 ? 0 : window.departAfter);
+
+            for (int i = from; i < hi; i++) {
+                int e = departureEvent[i];
+                stamp++;
+                for (int e2 = journeyStart[eventJourney[e] + 1] - 1; e2 > e; e2--) {
+                    int d = eventQuay[e2];
+                    if (d < 0 || targetSlot[d] == 0) continue;
+                    int t = targetSlot[d] - 1;
+                    if (seen[t] == stamp) continue;
+                    seen[t] = stamp;
+
+                    if (window.arriveBefore >= 0
+                            && (eventArrival[e2] < 0 || eventArrival[e2] > window.arriveBefore)) continue;
+
+                    int b = f * toQuays.length + t;
+                    if (buckets[b] == null) buckets[b] = new IntList(8);
+                    if (window.limit > 0 && buckets[b].size() >= 2 * window.limit) continue;
+                    buckets[b].add(e);
+                    buckets[b].add(e2);
                 }
             }
-            if (direction == null) {
-                direction = "ukjent retning";
+        }
+
+        List<PairTrips> pairs = new ArrayList<>();
+        for (int b = 0; b < buckets.length; b++) {
+            if (buckets[b] == null) continue;
+            List<Trip> trips = new ArrayList<>(buckets[b].size() / 2);
+            for (int k = 0; k < buckets[b].size(); k += 2) {
+                int e = buckets[b].get(k);
+                trips.add(toTrip(eventJourney[e], e, buckets[b].get(k + 1)));
             }
+            pairs.add(new PairTrips(quayIds[fromQuays[b / toQuays.length]],
+                    quayIds[toQuays[b % toQuays.length]], trips));
+        }
 
-            int durationMinutes = -1;
-            if (dep != null && arr != null) {
-                Integer depSec = parseTimeToSeconds(dep);
-                Integer arrSec = parseTimeToSeconds(arr);
-                if (depSec != null && arrSec != null) {
-                    int diff = arrSec - depSec;
-                    if (diff < 0) diff += 24 * 3600;
-                    durationMinutes = diff / 60;
-                }
+        pairs.sort((a, b) -> {
+            if (a.trips.size() != b.trips.size()) return Integer.compare(b.trips.size(), a.trips.size());
+            return Integer.compare(firstDepartureSec(a), firstDepartureSec(b));
+        });
+        return pairs;
+    }
+
+    /** Én direkte tur i et søk fra flere mulige start-quays; origin er posisjonen i fromQuays. */
+    public static final class OriginTrip {
+        public final int origin;
+        public final String fromQuayId;
+        public final String toQuayId;
+        public final Trip trip;
+
+        OriginTrip(int origin, String fromQuayId, String toQuayId, Trip trip) {
+            this.origin = origin;
+            this.fromQuayId = fromQuayId;
+            this.toQuayId = toQuayId;
+            this.trip = trip;
+        }
+    }
+
+    /**
+     * Direkte turer fra en hvilken som helst av {@code fromQuays} til en av
+     * {@code toQuays}, der start-quay f tidligst kan nås ved {@code readyAt[f]}
+     * (sekunder etter midnatt, f.eks. departAfter pluss gangtid dit).
+     *
+     * Én gjennomgang: for hver start-quay binærsøker vi til første avgang
+     * etter readyAt og går journeyen framover til første mål-quay, så hver
+     * avgang gir tidligste ankomst. En journey som kan nås fra flere
+     * start-quays tas med én gang, fra den med tidligst ankomst og deretter
+     * mest slakk (avgang minus readyAt), altså den man kan dra senest til.
+     * Resultatet er sortert på samme måte. arriveBefore gjelder; limit
+     * gjelder både per start-quay i
+     * gjennomgangen og for hele svaret. departAfter og cursor brukes ikke.
+     */
+    public List<OriginTrip> findTripsFrom(int[] fromQuays, int[] readyAt, int[] toQuays, TripWindow window) {
+        boolean[] target = new boolean[quayIds.length];
+        for (int q : toQuays) target[q] = true;
+
+        // Kandidater som tripler (start-posisjon, påstigning, avstigning)
+        IntList cand = new IntList(64);
+        for (int f = 0; f < fromQuays.length; f++) {
+            int q = fromQuays[f];
+            if (target[q]) continue;
+            int lo = departureStart[q], hi = departureStart[q + 1];
+            int found = 0;
+
+            for (int i = lowerBound(departureTime, lo, hi, Math.max(0, readyAt[f]));
+                 i < hi && departureTime[i] != Integer.MAX_VALUE; i++) {
+                int e = departureEvent[i];
+                int end = journeyStart[eventJourney[e] + 1];
+                int e2 = e + 1;
+                while (e2 < end && (eventQuay[e2] < 0 || !target[eventQuay[e2]])) e2++;
+                if (e2 == end) continue;
+                if (window.arriveBefore >= 0
+                        && (eventArrival[e2] < 0 || eventArrival[e2] > window.arriveBefore)) continue;
+
+                cand.add(f);
+                cand.add(e);
+                cand.add(e2);
+                if (window.limit > 0 && ++found >= window.limit) break;
             }
+        }
 
-            trips.add(new Trip(sid, line, direction, dep, arr, stopsBeforeDest, durationMinutes));
+        int n = cand.size() / 3;
+        Integer[] order = new Integer[n];
+        for (int c = 0; c < n; c++) order[c] = c;
+        Arrays.sort(order, (a, b) -> {
+            int arrA = eventArrival[cand.get(3 * a + 2)], arrB = eventArrival[cand.get(3 * b + 2)];
+            if (arrA != arrB) return Integer.compare(arrA < 0 ? Integer.MAX_VALUE : arrA, arrB < 0 ? Integer.MAX_VALUE : arrB);
+            int slackA = eventDeparture[cand.get(3 * a + 1)] - readyAt[cand.get(3 * a)];
+            int slackB = eventDeparture[cand.get(3 * b + 1)] - readyAt[cand.get(3 * b)];
+            return Integer.compare(slackB, slackA);
+        });
+
+        BitSet taken = new BitSet(journeyIds.length);
+        List<OriginTrip> out = new ArrayList<>();
+        for (int c : order) {
+            int f = cand.get(3 * c), e = cand.get(3 * c + 1), e2 = cand.get(3 * c + 2);
+            int j = eventJourney[e];
+            if (taken.get(j)) continue;
+            taken.set(j);
+            out.add(new OriginTrip(f, quayIds[fromQuays[f]], quayIds[eventQuay[e2]], toTrip(j, e, e2)));
+            if (window.limit > 0 && out.size() >= window.limit) break;
         }
+        return out;
+    }
 
+    private static int firstDepartureSec(PairTrips p) {
+        int t = parseTimeToSeconds(p.trips.get(0).departureTime);
+        return t < 0 ? Integer.MAX_VALUE : t;
+    }
 
-        trips.sort(Comparator.comparing(t ->
-                t.departureTime == null ? "99:99:99" : t.departureTime));
-        return trips;
+    /**
+     * Siste besøk på quay q i samme journey som hendelse e, etter e; -1 hvis ingen.
+     * Postingene er sortert på hendelsesindeks, så dette er ett binærsøk.
+     */
+    int lastVisitAfter(int q, int e) {
+        int lo = postingStart[q], hi = postingStart[q + 1];
+        int end = journeyStart[eventJourney[e] + 1];
+        int idx = lowerBound(postingEvent, lo, hi, end) - 1;
+        return idx >= lo && postingEvent[idx] > e ? postingEvent[idx] : -1;
     }
 
-    private static int asInt(Object o) {
-        if (o instanceof Number) return ((Number) o).intValue();
-        if (o instanceof String s) return Integer.parseInt(s.trim());
-        throw new RuntimeException("Forventet heltall, fikk: " + o);
+    /** Første posisjon i a[lo, hi) med verdi &gt;= key. */
+    static int lowerBound(int[] a, int lo, int hi, int key) {
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (a[mid] < key) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
     }
 
-    private static String toStr(Object o) {
-        return o == null ? null : o.toString();
+    static String encodeCursor(int offset) {
+        return Integer.toString(offset, 36);
     }
 
-    private static Integer parseTimeToSeconds(String t) {
-        if (t == null) return null;
+    static int decodeCursor(String cursor) {
+        try {
+            return Integer.parseInt(cursor.trim(), 36);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Ugyldig cursor: " + cursor);
+        }
+    }
+
+    /** Bygger en Trip for journey j fra hendelse startIdx til stopIdx. */
+    Trip toTrip(int j, int startIdx, int stopIdx) {
+        int depSec = eventDeparture[startIdx];
+        int arrSec = eventArrival[stopIdx];
+
+        int stopsBeforeDest = Math.max(0, stopIdx - startIdx - 1);
+
+        int durationMinutes = -1;
+        if (depSec >= 0 && arrSec >= 0) {
+            int diff = arrSec - depSec;
+            if (diff < 0) diff += 24 * 3600;
+            durationMinutes = diff / 60;
+        }
+
+        return new Trip(journeyIds[j], journeyLines[j], directions[eventDirection[stopIdx]],
+                formatTime(depSec), formatTime(arrSec), stopsBeforeDest, durationMinutes);
+    }
+
+    /** "HH:MM:SS" eller "HH:MM" til sekunder etter midnatt; -1 hvis ukjent/ugyldig. */
+    static int parseTimeToSeconds(String t) {
+        if (t == null) return -1;
         String[] parts = t.split(":");
         try {
             int h, m, s;
@@ -153,16 +717,28 @@ public class DirectTripFinder {
                 m = Integer.parseInt(parts[1]);
                 s = Integer.parseInt(parts[2]);
             } else {
-                return null;
+                return -1;
             }
-            return h * 3600 + m * 3600 / 60 + s;
+            return h * 3600 + m * 60 + s;
         } catch (NumberFormatException e) {
-            return null;
+            return -1;
         }
     }
 
+    /** Sekunder etter midnatt til "HH:MM:SS"; null hvis ukjent. */
+    static String formatTime(int seconds) {
+        if (seconds < 0) return null;
+        int h = seconds / 3600, m = (seconds / 60) % 60, s = seconds % 60;
+        char[] c = {
+                (char) ('0' + h / 10), (char) ('0' + h % 10), ':',
+                (char) ('0' + m / 10), (char) ('0' + m % 10), ':',
+                (char) ('0' + s / 10), (char) ('0' + s % 10)
+        };
+        return new String(c);
+    }
+
 
-    private String extractLineNumber(String serviceId) {
+    private static String extractLineNumber(String serviceId) {
         try {
             String[] parts = serviceId.split(":");
             if (parts.length < 3) return "?";
@@ -5,6 +5,7 @@ import java.net.URI;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -14,8 +15,15 @@ public class EnturClient {
 
     private final HttpClient http;
     private final String clientName;
+    private final String geoEndpoint;
     public EnturClient(String clientName) {
+        this(clientName, GEO_ENDPOINT);
+    }
+
+    /** Med egen geocoder-adresse, f.eks. en lokal stub-server ved testing. */
+    public EnturClient(String clientName, String geocoderEndpoint) {
         this.clientName = clientName;
+        this.geoEndpoint = geocoderEndpoint == null || geocoderEndpoint.isBlank() ? GEO_ENDPOINT : geocoderEndpoint;
         this.http = HttpClient.newBuilder()
                 .connectTimeout(Duration.ofSeconds(10))
                 .build();
@@ -85,7 +93,7 @@ public class EnturClient {
                 + "&focus.point.lon=" + URLEncoder.encode(lon, StandardCharsets.UTF_8)
                 : "";
 
-        String base = GEO_ENDPOINT
+        String base = geoEndpoint
                 + "?text=" + URLEncoder.encode(q, StandardCharsets.UTF_8)
                 + "&lang=no"
                 + "&size=" + limit
@@ -124,6 +132,39 @@ public class EnturClient {
     }
 
 
+    /**
+     * Ett asynkront geocoder-kall mot NSR-laget, uten nye forsøk, for søk med
+     * fast tidsbudsjett. Fullføres med svaret, eller feiler ved timeout eller
+     * status utenfor 2xx.
+     */
+    public CompletableFuture<String> searchStopsAsync(String q, int limit, Duration timeout) {
+        if (q == null || q.isBlank()) throw new IllegalArgumentException("q mangler");
+        if (limit <= 0) limit = 8;
+
+        String url = geoEndpoint
+                + "?text=" + URLEncoder.encode(q, StandardCharsets.UTF_8)
+                + "&lang=no"
+                + "&size=" + limit
+                + "&boundary.country=nor"
+                + "&layers=venue&categories=transport&sources=nsr";
+
+        HttpRequest req = HttpRequest.newBuilder(URI.create(url))
+                .timeout(timeout)
+                .header("Accept", "application/json")
+                .header("ET-Client-Name", clientName)
+                .GET()
+                .build();
+
+        return http.sendAsync(req, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8))
+                .thenApply(r -> {
+                    if (r.statusCode() / 100 != 2) {
+                        throw new RuntimeException("Entur geocoder " + r.statusCode() + ": " + r.body());
+                    }
+                    return r.body();
+                });
+    }
+
+
     public String searchStopsInRegion(String q, int limit, String lat, String lon, int radiusMeters) throws Exception {
         if (q == null || q.isBlank()) throw new IllegalArgumentException("q mangler");
         if (limit <= 0) limit = 8;
@@ -140,7 +181,7 @@ public class EnturClient {
                         "&boundary.circle.lon=" + URLEncoder.encode(lon, StandardCharsets.UTF_8) +
                         "&boundary.circle.radius=" + URLEncoder.encode(String.valueOf(radiusMeters), StandardCharsets.UTF_8);
 
-        String base = GEO_ENDPOINT
+        String base = geoEndpoint
                 + "?text=" + URLEncoder.encode(q, StandardCharsets.UTF_8)
                 + "&lang=no"
                 + "&size=" + limit
@@ -0,0 +1,130 @@
+package no.hia.oblig4;
+
+/**
+ * Haversine-avstand fra ett punkt til mange, uten trigonometri per par.
+ *
+ * Haversine er a = sin²(Δφ/2) + cos φ1 · cos φ2 · sin²(Δλ/2), avstand
+ * 2R · asin(√a). Med sinus og cosinus av halve vinkler ferdig utregnet per
+ * punkt er sin(Δφ/2) = sin(φ2/2)cos(φ1/2) − cos(φ2/2)sin(φ1/2), og
+ * tilsvarende for λ, så a er bare multiplikasjoner og addisjoner. a vokser
+ * med avstanden, så sammenligninger kan gjøres på a direkte og bare
+ * svarene regnes om til meter.
+ *
+ * Lange sammenhengende områder regnes med JDK Vector API når
+ * VectorGeoKernel er bygd inn (mvn -Pvector) og modulen jdk.incubator.vector
+ * er lastet (java --add-modules jdk.incubator.vector), ellers med en skalar
+ * løkke. Kjernen lastes ved navn, så et vanlig bygg kompilerer ikke mot
+ * inkubatormodulen. GEO_KERNEL=scalar tvinger skalar.
+ */
+final class GeoKernel {
+
+    static final double EARTH_RADIUS = 6371000.0;
+
+    /** Kortere områder enn dette går skalart; oppstarten av en vektorløkke lønner seg ikke. */
+    private static final int VECTOR_MIN_RUN = 16;
+
+    /** Vektorkjernen, eller null når den ikke er bygd inn eller modulen mangler. */
+    static final Terms VECTOR_KERNEL = loadVector();
+    static final boolean VECTOR = VECTOR_KERNEL != null;
+
+    /** En alternativ kjerne for {@link #terms}. */
+    interface Terms {
+        void terms(Points p, int from, int to, Query q, double[] out);
+
+        int lanes();
+    }
+
+    private GeoKernel() {
+    }
+
+    /** Punktene som sammenhengende arrays: halve vinkler i radianer, pluss cos(breddegrad). */
+    static final class Points {
+        final double[] sinHalfLat;
+        final double[] cosHalfLat;
+        final double[] sinHalfLon;
+        final double[] cosHalfLon;
+        final double[] cosLat;
+
+        Points(double[] latDeg, double[] lonDeg) {
+            int n = latDeg.length;
+            sinHalfLat = new double[n];
+            cosHalfLat = new double[n];
+            sinHalfLon = new double[n];
+            cosHalfLon = new double[n];
+            cosLat = new double[n];
+            for (int i = 0; i < n; i++) {
+                double phi = Math.toRadians(latDeg[i]), lambda = Math.toRadians(lonDeg[i]);
+                sinHalfLat[i] = Math.sin(phi / 2);
+                cosHalfLat[i] = Math.cos(phi / 2);
+                sinHalfLon[i] = Math.sin(lambda / 2);
+                cosHalfLon[i] = Math.cos(lambda / 2);
+                cosLat[i] = Math.cos(phi);
+            }
+        }
+
+        int size() {
+            return cosLat.length;
+        }
+    }
+
+    /** Søkepunktet, med de samme forhåndsberegnede verdiene. */
+    static final class Query {
+        final double sinHalfLat;
+        final double cosHalfLat;
+        final double sinHalfLon;
+        final double cosHalfLon;
+        final double cosLat;
+
+        Query(double latDeg, double lonDeg) {
+            double phi = Math.toRadians(latDeg), lambda = Math.toRadians(lonDeg);
+            sinHalfLat = Math.sin(phi / 2);
+            cosHalfLat = Math.cos(phi / 2);
+            sinHalfLon = Math.sin(lambda / 2);
+            cosHalfLon = Math.cos(lambda / 2);
+            cosLat = Math.cos(phi);
+        }
+    }
+
+    /** Haversine-leddet a fra q til punkt i. */
+    static double term(Points p, int i, Query q) {
+        double dPhi = p.sinHalfLat[i] * q.cosHalfLat - p.cosHalfLat[i] * q.sinHalfLat;
+        double dLambda = p.sinHalfLon[i] * q.cosHalfLon - p.cosHalfLon[i] * q.sinHalfLon;
+        return dPhi * dPhi + q.cosLat * p.cosLat[i] * (dLambda * dLambda);
+    }
+
+    /** Skriver a for punktene [from, to) til out[0 .. to - from). */
+    static void terms(Points p, int from, int to, Query q, double[] out) {
+        if (VECTOR && to - from >= VECTOR_MIN_RUN) {
+            VECTOR_KERNEL.terms(p, from, to, q, out);
+        } else {
+            scalarTerms(p, from, to, q, out, 0);
+        }
+    }
+
+    /** Skalar løkke; skriver a for [from, to) til out fra {@code offset}. */
+    static void scalarTerms(Points p, int from, int to, Query q, double[] out, int offset) {
+        for (int i = from; i < to; i++) out[offset + i - from] = term(p, i, q);
+    }
+
+    static double meters(double a) {
+        return 2 * EARTH_RADIUS * Math.asin(Math.sqrt(Math.min(1.0, a)));
+    }
+
+    /** Omvendt av {@link #meters}: a for en avstand. */
+    static double term(double meters) {
+        if (meters >= Math.PI * EARTH_RADIUS) return 1.0;
+        double s = Math.sin(meters / (2 * EARTH_RADIUS));
+        return s * s;
+    }
+
+    private static Terms loadVector() {
+        if ("scalar".equalsIgnoreCase(System.getenv("GEO_KERNEL"))) return null;
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) return null;
+        try {
+            Terms k = (Terms) Class.forName("no.hia.oblig4.VectorGeoKernel").getDeclaredConstructor().newInstance();
+            return k.lanes() > 1 ? k : null;
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+}
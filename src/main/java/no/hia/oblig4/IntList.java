@@ -0,0 +1,41 @@
+package no.hia.oblig4;
+
+import java.util.Arrays;
+
+/**
+ * Enkel voksende int-liste uten boxing.
+ * Brukes under innlasting av rutetabellen før kolonnene fryses til int[].
+ */
+final class IntList {
+    private int[] data;
+    private int size;
+
+    IntList() {
+        this(16);
+    }
+
+    IntList(int capacity) {
+        data = new int[Math.max(capacity, 4)];
+    }
+
+    void add(int v) {
+        if (size == data.length) data = Arrays.copyOf(data, size * 2);
+        data[size++] = v;
+    }
+
+    int get(int i) {
+        return data[i];
+    }
+
+    void set(int i, int v) {
+        data[i] = v;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int[] toArray() {
+        return Arrays.copyOf(data, size);
+    }
+}
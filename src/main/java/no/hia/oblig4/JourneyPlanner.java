@@ -0,0 +1,401 @@
+package no.hia.oblig4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reiseplanlegger med bytter, etter RAPTOR (Round-bAsed Public Transit
+ * Optimized Router).
+ *
+ * Journeys med samme stopprekkefølge slås sammen til ruter, og turene i en
+ * rute sorteres på avgangstid. Hver runde k finner tidligste ankomst med
+ * k kjøretøy ved å skanne hver rute én gang fra det første stoppet som ble
+ * forbedret i forrige runde. Etter hver runde tas bytter (samme quay, eller
+ * quay med samme navn) med en minste byttetid. Resultatet er Pareto-optimalt
+ * på ankomsttid og antall bytter.
+ *
+ * Bygges én gang fra kolonnene i {@link DirectTripFinder} og er uforanderlig
+ * etterpå, så den kan deles mellom tråder.
+ */
+public final class JourneyPlanner {
+
+    public static final int DEFAULT_MIN_TRANSFER_SECONDS = 120;
+    public static final int DEFAULT_MAX_TRANSFERS = 3;
+
+    private static final int INF = Integer.MAX_VALUE;
+
+    private final DirectTripFinder finder;
+    private final int quays;
+
+    /*
+     * Ruter. Stoppene til rute r ligger i routeStops[routeStopStart[r] ..
+     * routeStopStart[r + 1]). Turene ligger som en matrise (tur, stopp) fra
+     * routeCell[r]: cellen for tur t ved stopp s er routeCell[r] + t * n + s,
+     * der n er antall stopp i ruta. Tider er INF når de er ukjente.
+     */
+    private final int[] routeStopStart;
+    private final int[] routeStops;
+    private final int[] routeTripCount;
+    private final int[] routeCell;
+    private final int[] cellEvent;
+    private final int[] cellArrival;
+    private final int[] cellDeparture;
+
+    /** Per quay: (rute, posisjon i ruta) i quayRoute/quayRoutePos fra quayRouteStart[q]. */
+    private final int[] quayRouteStart;
+    private final int[] quayRoute;
+    private final int[] quayRoutePos;
+
+    /** Per quay: quays man kan bytte til (samme navn, inkludert seg selv). */
+    private final int[] transferStart;
+    private final int[] transferQuay;
+
+    public static final class Leg {
+        public final String fromQuayId;
+        public final String fromName;
+        public final String toQuayId;
+        public final String toName;
+        public final DirectTripFinder.Trip trip;
+
+        Leg(String fromQuayId, String fromName, String toQuayId, String toName, DirectTripFinder.Trip trip) {
+            this.fromQuayId = fromQuayId;
+            this.fromName = fromName;
+            this.toQuayId = toQuayId;
+            this.toName = toName;
+            this.trip = trip;
+        }
+    }
+
+    public static final class Journey {
+        public final List<Leg> legs;
+        public final int transfers;
+        public final String departureTime;
+        public final String arrivalTime;
+        public final int durationMinutes;
+
+        Journey(List<Leg> legs, int departureSec, int arrivalSec) {
+            this.legs = legs;
+            this.transfers = legs.size() - 1;
+            this.departureTime = DirectTripFinder.formatTime(departureSec);
+            this.arrivalTime = DirectTripFinder.formatTime(arrivalSec);
+            this.durationMinutes = (arrivalSec - departureSec) / 60;
+        }
+    }
+
+    public JourneyPlanner(DirectTripFinder finder) {
+        this.finder = finder;
+        this.quays = finder.quayIds.length;
+
+        // Grupper journeys på stopprekkefølge
+        int journeys = finder.journeyIds.length;
+        Map<String, List<Integer>> byPattern = new HashMap<>();
+        List<String> patternOrder = new ArrayList<>();
+        for (int j = 0; j < journeys; j++) {
+            int from = finder.journeyStart[j], to = finder.journeyStart[j + 1];
+            if (to - from < 2) continue;
+            String key = Arrays.toString(Arrays.copyOfRange(finder.eventQuay, from, to));
+            List<Integer> list = byPattern.get(key);
+            if (list == null) {
+                list = new ArrayList<>();
+                byPattern.put(key, list);
+                patternOrder.add(key);
+            }
+            list.add(j);
+        }
+
+        // En rute må være FIFO (ingen tur kjører forbi en annen); ellers deles den opp
+        List<int[]> routes = new ArrayList<>();
+        for (String key : patternOrder) {
+            List<Integer> js = byPattern.get(key);
+            js.sort((a, b) -> Integer.compare(firstDeparture(a), firstDeparture(b)));
+            List<List<Integer>> split = new ArrayList<>();
+            for (int j : js) {
+                List<Integer> target = null;
+                for (List<Integer> r : split) {
+                    if (!overtakes(r.get(r.size() - 1), j)) { target = r; break; }
+                }
+                if (target == null) {
+                    target = new ArrayList<>();
+                    split.add(target);
+                }
+                target.add(j);
+            }
+            for (List<Integer> r : split) {
+                routes.add(r.stream().mapToInt(Integer::intValue).toArray());
+            }
+        }
+
+        int nRoutes = routes.size();
+        routeStopStart = new int[nRoutes + 1];
+        routeTripCount = new int[nRoutes];
+        routeCell = new int[nRoutes + 1];
+        for (int r = 0; r < nRoutes; r++) {
+            int j0 = routes.get(r)[0];
+            int n = finder.journeyStart[j0 + 1] - finder.journeyStart[j0];
+            routeStopStart[r + 1] = routeStopStart[r] + n;
+            routeTripCount[r] = routes.get(r).length;
+            routeCell[r + 1] = routeCell[r] + n * routeTripCount[r];
+        }
+
+        routeStops = new int[routeStopStart[nRoutes]];
+        cellEvent = new int[routeCell[nRoutes]];
+        cellArrival = new int[cellEvent.length];
+        cellDeparture = new int[cellEvent.length];
+        for (int r = 0; r < nRoutes; r++) {
+            int[] js = routes.get(r);
+            int n = routeStopStart[r + 1] - routeStopStart[r];
+            System.arraycopy(finder.eventQuay, finder.journeyStart[js[0]], routeStops, routeStopStart[r], n);
+            for (int t = 0; t < js.length; t++) {
+                int e0 = finder.journeyStart[js[t]];
+                for (int s = 0; s < n; s++) {
+                    int c = routeCell[r] + t * n + s;
+                    cellEvent[c] = e0 + s;
+                    cellArrival[c] = timeOrInf(finder.eventArrival[e0 + s]);
+                    cellDeparture[c] = timeOrInf(finder.eventDeparture[e0 + s]);
+                }
+            }
+        }
+
+        // Quay -> (rute, posisjon)
+        quayRouteStart = new int[quays + 1];
+        for (int i = 0; i < routeStops.length; i++) {
+            if (routeStops[i] >= 0) quayRouteStart[routeStops[i] + 1]++;
+        }
+        for (int q = 0; q < quays; q++) quayRouteStart[q + 1] += quayRouteStart[q];
+        quayRoute = new int[quayRouteStart[quays]];
+        quayRoutePos = new int[quayRoute.length];
+        int[] fill = Arrays.copyOf(quayRouteStart, quays);
+        for (int r = 0; r < nRoutes; r++) {
+            for (int i = routeStopStart[r]; i < routeStopStart[r + 1]; i++) {
+                int q = routeStops[i];
+                if (q < 0) continue;
+                quayRoute[fill[q]] = r;
+                quayRoutePos[fill[q]++] = i - routeStopStart[r];
+            }
+        }
+
+        // Bytter: alle quays på samme stoppested (inkludert quayen selv)
+        StopRegistry stops = finder.stops;
+        transferStart = new int[quays + 1];
+        IntList targets = new IntList(quays * 2);
+        for (int q = 0; q < quays; q++) {
+            if (q < stops.size()) {
+                int place = stops.placeOf(q);
+                for (int k = stops.placeStart(place); k < stops.placeEnd(place); k++) {
+                    targets.add(stops.placeQuay(k));
+                }
+            } else {
+                targets.add(q);
+            }
+            transferStart[q + 1] = targets.size();
+        }
+        transferQuay = targets.toArray();
+
+        System.out.println("🧭 journeyPlanner: " + nRoutes + " ruter fra " + journeys + " journeys");
+    }
+
+    private int firstDeparture(int j) {
+        return timeOrInf(finder.eventDeparture[finder.journeyStart[j]]);
+    }
+
+    /** Sann hvis journey b (som går senere fra start) kommer fram før a ved et stopp. */
+    private boolean overtakes(int a, int b) {
+        int ea = finder.journeyStart[a], eb = finder.journeyStart[b];
+        int n = finder.journeyStart[a + 1] - ea;
+        for (int s = 0; s < n; s++) {
+            if (timeOrInf(finder.eventArrival[eb + s]) < timeOrInf(finder.eventArrival[ea + s])
+                    || timeOrInf(finder.eventDeparture[eb + s]) < timeOrInf(finder.eventDeparture[ea + s])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int timeOrInf(int t) {
+        return t < 0 ? INF : t;
+    }
+
+    /** Reiser mellom to quays med standard byttetid og maks antall bytter. */
+    public List<Journey> plan(String fromQuayId, String toQuayId, int departAfter) {
+        int from = finder.quayIndexOf(fromQuayId);
+        int to = finder.quayIndexOf(toQuayId);
+        if (from < 0 || to < 0) return Collections.emptyList();
+        return plan(new int[] { from }, new int[] { to }, departAfter,
+                DEFAULT_MAX_TRANSFERS, DEFAULT_MIN_TRANSFER_SECONDS);
+    }
+
+    /**
+     * Pareto-optimale reiser fra en av {@code origins} til en av
+     * {@code targets}, tidligst ved {@code departAfter} (sekunder etter
+     * midnatt). Én reise per antall kjøretøy som gir tidligere ankomst enn
+     * med færre bytter, sortert på antall bytter.
+     */
+    public List<Journey> plan(int[] origins, int[] targets, int departAfter,
+                              int maxTransfers, int minTransferSeconds) {
+        int rounds = Math.max(0, maxTransfers) + 1;
+
+        // Etiketter per runde: ankomst med kjøretøy, og tidligste påstigning etter bytte
+        int[][] arrival = new int[rounds + 1][];
+        int[][] board = new int[rounds + 1][];
+        int[][] boardEvent = new int[rounds + 1][];
+        int[][] alightEvent = new int[rounds + 1][];
+        int[][] transferFrom = new int[rounds + 1][];
+
+        int[] bestArrival = new int[quays];
+        int[] bestBoard = new int[quays];
+        Arrays.fill(bestArrival, INF);
+        Arrays.fill(bestBoard, INF);
+
+        boolean[] isTarget = new boolean[quays];
+        for (int q : targets) isTarget[q] = true;
+
+        board[0] = newLabels();
+        transferFrom[0] = newLabels();
+        IntList marked = new IntList();
+        boolean[] isMarked = new boolean[quays];
+        for (int q : origins) {
+            if (isTarget[q]) continue;
+            board[0][q] = departAfter;
+            bestBoard[q] = departAfter;
+            transferFrom[0][q] = -1;
+            if (!isMarked[q]) { isMarked[q] = true; marked.add(q); }
+        }
+
+        List<Journey> result = new ArrayList<>();
+        int bestTarget = INF;
+        int routes = routeTripCount.length;
+        int[] routeFrom = new int[routes];
+
+        for (int k = 1; k <= rounds && marked.size() > 0; k++) {
+            arrival[k] = newLabels();
+            boardEvent[k] = new int[quays];
+            alightEvent[k] = new int[quays];
+
+            // Ruter som går gjennom en merket quay, med tidligste posisjon
+            Arrays.fill(routeFrom, INF);
+            for (int i = 0; i < marked.size(); i++) {
+                int q = marked.get(i);
+                isMarked[q] = false;
+                for (int p = quayRouteStart[q]; p < quayRouteStart[q + 1]; p++) {
+                    int r = quayRoute[p];
+                    if (quayRoutePos[p] < routeFrom[r]) routeFrom[r] = quayRoutePos[p];
+                }
+            }
+            marked = new IntList();
+
+            int[] prevBoard = board[k - 1];
+            for (int r = 0; r < routes; r++) {
+                if (routeFrom[r] == INF) continue;
+                int n = routeStopStart[r + 1] - routeStopStart[r];
+                int trip = -1;
+                int tripBoardEvent = -1;
+
+                for (int s = routeFrom[r]; s < n; s++) {
+                    int q = routeStops[routeStopStart[r] + s];
+                    if (q < 0) continue;
+
+                    if (trip >= 0) {
+                        int c = routeCell[r] + trip * n + s;
+                        int a = cellArrival[c];
+                        if (a != INF && a < bestArrival[q] && a < bestTarget) {
+                            arrival[k][q] = a;
+                            bestArrival[q] = a;
+                            boardEvent[k][q] = tripBoardEvent;
+                            alightEvent[k][q] = cellEvent[c];
+                            if (!isMarked[q]) { isMarked[q] = true; marked.add(q); }
+                        }
+                    }
+
+                    // Kan vi ta en tidligere tur herfra?
+                    int ready = prevBoard[q];
+                    if (ready != INF
+                            && (trip < 0 || ready <= cellDeparture[routeCell[r] + trip * n + s])) {
+                        int t = earliestTrip(r, n, s, ready, trip < 0 ? routeTripCount[r] : trip + 1);
+                        if (t >= 0 && t != trip) {
+                            trip = t;
+                            tripBoardEvent = cellEvent[routeCell[r] + t * n + s];
+                        }
+                    }
+                }
+            }
+
+            // Nytt Pareto-punkt hvis denne runden kom tidligere fram
+            int roundBest = INF, roundTarget = -1;
+            for (int q : targets) {
+                if (arrival[k][q] < roundBest) { roundBest = arrival[k][q]; roundTarget = q; }
+            }
+            if (roundBest < bestTarget) {
+                bestTarget = roundBest;
+                result.add(reconstruct(k, roundTarget, arrival, boardEvent, alightEvent, transferFrom));
+            }
+            if (k == rounds) break;
+
+            // Bytter til quays med samme navn (og samme quay), med minste byttetid
+            board[k] = newLabels();
+            transferFrom[k] = newLabels();
+            IntList improved = marked;
+            marked = new IntList();
+            Arrays.fill(isMarked, false);
+            for (int i = 0; i < improved.size(); i++) {
+                int q = improved.get(i);
+                if (isTarget[q]) continue;
+                int ready = arrival[k][q] + minTransferSeconds;
+                for (int p = transferStart[q]; p < transferStart[q + 1]; p++) {
+                    int q2 = transferQuay[p];
+                    if (ready < board[k][q2] && ready < bestBoard[q2] && ready < bestTarget) {
+                        board[k][q2] = ready;
+                        bestBoard[q2] = ready;
+                        transferFrom[k][q2] = q;
+                        if (!isMarked[q2]) { isMarked[q2] = true; marked.add(q2); }
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Første tur i [0, limit) som går fra posisjon s tidligst ved {@code ready}.
+     * Rutene er FIFO, så avgangene ved hvert stopp er sortert.
+     */
+    private int earliestTrip(int r, int n, int s, int ready, int limit) {
+        int lo = 0, hi = limit;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (cellDeparture[routeCell[r] + mid * n + s] < ready) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo < limit && cellDeparture[routeCell[r] + lo * n + s] != INF ? lo : -1;
+    }
+
+    private Journey reconstruct(int k, int target, int[][] arrival, int[][] boardEvent,
+                                int[][] alightEvent, int[][] transferFrom) {
+        List<Leg> legs = new ArrayList<>(k);
+        int q = target;
+        int on = -1;
+        for (int round = k; round >= 1; round--) {
+            on = boardEvent[round][q];
+            int off = alightEvent[round][q];
+            int fromQ = finder.eventQuay[on];
+            legs.add(new Leg(finder.quayIds[fromQ], nameOf(fromQ), finder.quayIds[q], nameOf(q),
+                    finder.toTrip(finder.eventJourney[on], on, off)));
+            q = transferFrom[round - 1][fromQ];
+        }
+        Collections.reverse(legs);
+        return new Journey(legs, finder.eventDeparture[on], arrival[k][target]);
+    }
+
+    private String nameOf(int q) {
+        return q < finder.stops.size() ? finder.stops.name(q) : null;
+    }
+
+    private int[] newLabels() {
+        int[] a = new int[quays];
+        Arrays.fill(a, INF);
+        return a;
+    }
+}
@@ -0,0 +1,381 @@
+package no.hia.oblig4;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Strømmende "pull"-leser for JSON.
+ *
+ * I motsetning til den gamle MiniJson-parseren bygger denne ikke noe tre av
+ * Map/List-objekter. Kalleren trekker ett token om gangen og plukker bare ut
+ * feltene den trenger; resten hoppes over med {@link #skipValue()}.
+ * Leseren jobber direkte mot en {@link Reader}, så hele fila trenger aldri
+ * ligge i minnet som én String.
+ *
+ * Typisk bruk:
+ * <pre>
+ *   try (JsonPullReader r = JsonPullReader.open(path)) {
+ *       r.beginArray();
+ *       while (r.hasNext()) {
+ *           r.beginObject();
+ *           while (r.hasNext()) {
+ *               switch (r.nextName()) {
+ *                   case "id" -> id = r.nextString();
+ *                   default   -> r.skipValue();
+ *               }
+ *           }
+ *           r.endObject();
+ *       }
+ *       r.endArray();
+ *   }
+ * </pre>
+ */
+public final class JsonPullReader implements Closeable {
+
+    public enum Token {
+        BEGIN_ARRAY, END_ARRAY, BEGIN_OBJECT, END_OBJECT,
+        NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+    }
+
+    // Tilstander for hvert nivå i stakken
+    private static final int EMPTY_DOCUMENT    = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_ARRAY       = 2;
+    private static final int NONEMPTY_ARRAY    = 3;
+    private static final int EMPTY_OBJECT      = 4;
+    private static final int DANGLING_NAME     = 5;
+    private static final int NONEMPTY_OBJECT   = 6;
+
+    private final Reader in;
+    private final char[] buf = new char[8192];
+    private int pos;
+    private int limit;
+
+    private int[] stack = new int[32];
+    private int depth;
+
+    /** Token som er "kikket på", men ikke konsumert ennå (null = ingen). */
+    private Token peeked;
+    /** Gjenbrukes for strenger og tall, så vi slipper en ny builder per verdi. */
+    private final StringBuilder sb = new StringBuilder(64);
+    /** Fnutt-tegnet (" eller ') til strengen/navnet som ligger i peeked. */
+    private char quote;
+
+    public JsonPullReader(Reader in) {
+        this.in = in;
+        stack[depth++] = EMPTY_DOCUMENT;
+    }
+
+    public JsonPullReader(InputStream in) {
+        this(new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
+
+    public static JsonPullReader open(Path path) throws IOException {
+        return new JsonPullReader(Files.newBufferedReader(path, StandardCharsets.UTF_8));
+    }
+
+    /* ------------------------------ Struktur ------------------------------ */
+
+    public void beginArray() throws IOException {
+        expectToken(Token.BEGIN_ARRAY);
+        push(EMPTY_ARRAY);
+    }
+
+    public void endArray() throws IOException {
+        expectToken(Token.END_ARRAY);
+        depth--;
+    }
+
+    public void beginObject() throws IOException {
+        expectToken(Token.BEGIN_OBJECT);
+        push(EMPTY_OBJECT);
+    }
+
+    public void endObject() throws IOException {
+        expectToken(Token.END_OBJECT);
+        depth--;
+    }
+
+    /** Er det flere elementer i gjeldende array/objekt? */
+    public boolean hasNext() throws IOException {
+        Token t = peek();
+        return t != Token.END_ARRAY && t != Token.END_OBJECT && t != Token.END_DOCUMENT;
+    }
+
+    /* ------------------------------- Verdier ------------------------------ */
+
+    public String nextName() throws IOException {
+        expectToken(Token.NAME);
+        String name = readString(quote);
+        stack[depth - 1] = DANGLING_NAME;
+        return name;
+    }
+
+    /**
+     * Leser en streng. JSON-null gir {@code null}, og tall/boolske verdier
+     * returneres som tekst, slik at kallere ikke trenger å sjekke typen først.
+     */
+    public String nextString() throws IOException {
+        Token t = peek();
+        switch (t) {
+            case STRING -> { peeked = null; return readString(quote); }
+            case NUMBER -> { peeked = null; return readNumberText(); }
+            case NULL, BOOLEAN -> { peeked = null; return readLiteral(); }
+            default -> throw err("forventet streng, fikk " + t);
+        }
+    }
+
+    public long nextLong() throws IOException {
+        Token t = peek();
+        if (t == Token.STRING) {
+            peeked = null;
+            return Long.parseLong(readString(quote).trim());
+        }
+        if (t != Token.NUMBER) throw err("forventet tall, fikk " + t);
+        peeked = null;
+
+        // Raskt spor for heltall uten å bygge en String
+        long value = 0;
+        boolean negative = false;
+        int digits = 0;
+        if (fill(1) && buf[pos] == '-') { negative = true; pos++; }
+        while (fill(1) && isDigit(buf[pos])) {
+            value = value * 10 + (buf[pos++] - '0');
+            digits++;
+        }
+        if (digits == 0 || (fill(1) && isNumberChar(buf[pos])) || digits > 18) {
+            throw err("forventet heltall");
+        }
+        return negative ? -value : value;
+    }
+
+    public int nextInt() throws IOException {
+        long v = nextLong();
+        if (v != (int) v) throw err("heltall utenfor int-område: " + v);
+        return (int) v;
+    }
+
+    public double nextDouble() throws IOException {
+        Token t = peek();
+        if (t == Token.STRING) {
+            peeked = null;
+            return Double.parseDouble(readString(quote).trim());
+        }
+        if (t != Token.NUMBER) throw err("forventet tall, fikk " + t);
+        peeked = null;
+        return Double.parseDouble(readNumberText());
+    }
+
+    public boolean nextBoolean() throws IOException {
+        expectToken(Token.BOOLEAN);
+        return "true".equals(readLiteral());
+    }
+
+    public void nextNull() throws IOException {
+        expectToken(Token.NULL);
+        readLiteral();
+    }
+
+    /** Hopper over neste verdi, inkludert hele under-objekter og -arrays. */
+    public void skipValue() throws IOException {
+        int level = 0;
+        do {
+            Token t = peek();
+            switch (t) {
+                case BEGIN_ARRAY -> { beginArray(); level++; }
+                case BEGIN_OBJECT -> { beginObject(); level++; }
+                case END_ARRAY -> { endArray(); level--; }
+                case END_OBJECT -> { endObject(); level--; }
+                case NAME -> nextName();
+                case STRING -> { peeked = null; skipString(quote); }
+                case NUMBER -> { peeked = null; readNumberText(); }
+                case BOOLEAN, NULL -> { peeked = null; readLiteral(); }
+                case END_DOCUMENT -> throw err("uventet slutt");
+            }
+        } while (level > 0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        peeked = null;
+        in.close();
+    }
+
+    /* --------------------------- Tokenisering --------------------------- */
+
+    /** Ser på neste token uten å konsumere det. */
+    public Token peek() throws IOException {
+        if (peeked != null) return peeked;
+
+        int scope = stack[depth - 1];
+        switch (scope) {
+            case EMPTY_ARRAY -> stack[depth - 1] = NONEMPTY_ARRAY;
+            case NONEMPTY_ARRAY -> {
+                char c = nextNonWhitespace();
+                if (c == ']') { pos++; return peeked = Token.END_ARRAY; }
+                if (c != ',') throw err("forventet , eller ]");
+                pos++;
+            }
+            case EMPTY_OBJECT, NONEMPTY_OBJECT -> {
+                char c = nextNonWhitespace();
+                if (c == '}') { pos++; return peeked = Token.END_OBJECT; }
+                if (scope == NONEMPTY_OBJECT) {
+                    if (c != ',') throw err("forventet , eller }");
+                    pos++;
+                    c = nextNonWhitespace();
+                }
+                if (c != '"' && c != '\'') throw err("forventet feltnavn");
+                quote = c;
+                pos++;
+                stack[depth - 1] = NONEMPTY_OBJECT;
+                return peeked = Token.NAME;
+            }
+            case DANGLING_NAME -> {
+                if (nextNonWhitespace() != ':') throw err("forventet :");
+                pos++;
+                stack[depth - 1] = NONEMPTY_OBJECT;
+            }
+            case EMPTY_DOCUMENT -> stack[depth - 1] = NONEMPTY_DOCUMENT;
+            case NONEMPTY_DOCUMENT -> {
+                if (!skipWhitespace()) return peeked = Token.END_DOCUMENT;
+                throw err("ekstra tegn etter dokumentet");
+            }
+            default -> throw err("ugyldig tilstand");
+        }
+
+        char c = nextNonWhitespace();
+        if (c == ']' && scope == EMPTY_ARRAY) { pos++; return peeked = Token.END_ARRAY; }
+
+        switch (c) {
+            case '[': pos++; return peeked = Token.BEGIN_ARRAY;
+            case '{': pos++; return peeked = Token.BEGIN_OBJECT;
+            case '"':
+            case '\'':
+                quote = c; pos++;
+                return peeked = Token.STRING;
+            case 't':
+            case 'f':
+                return peeked = Token.BOOLEAN;
+            case 'n':
+                return peeked = Token.NULL;
+            default:
+                if (c == '-' || isDigit(c)) return peeked = Token.NUMBER;
+                throw err("ukjent verdi");
+        }
+    }
+
+    private void expectToken(Token expected) throws IOException {
+        Token t = peek();
+        if (t != expected) throw err("forventet " + expected + ", fikk " + t);
+        peeked = null;
+    }
+
+    private void push(int scope) {
+        if (depth == stack.length) {
+            int[] bigger = new int[depth * 2];
+            System.arraycopy(stack, 0, bigger, 0, depth);
+            stack = bigger;
+        }
+        stack[depth++] = scope;
+    }
+
+    private String readString(char q) throws IOException {
+        sb.setLength(0);
+        while (true) {
+            if (!fill(1)) throw err("uavsluttet streng");
+            char c = buf[pos++];
+            if (c == q) return sb.toString();
+            if (c != '\\') { sb.append(c); continue; }
+
+            if (!fill(1)) throw err("uavsluttet escape");
+            char e = buf[pos++];
+            switch (e) {
+                case 'n' -> sb.append('\n');
+                case 't' -> sb.append('\t');
+                case 'r' -> sb.append('\r');
+                case 'b' -> sb.append('\b');
+                case 'f' -> sb.append('\f');
+                case 'u' -> {
+                    if (!fill(4)) throw err("ufullstendig \\u-escape");
+                    sb.append((char) Integer.parseInt(new String(buf, pos, 4), 16));
+                    pos += 4;
+                }
+                default -> sb.append(e);
+            }
+        }
+    }
+
+    private void skipString(char q) throws IOException {
+        while (true) {
+            if (!fill(1)) throw err("uavsluttet streng");
+            char c = buf[pos++];
+            if (c == q) return;
+            if (c == '\\') {
+                if (!fill(1)) throw err("uavsluttet escape");
+                pos++;
+            }
+        }
+    }
+
+    private String readNumberText() throws IOException {
+        sb.setLength(0);
+        while (fill(1) && isNumberChar(buf[pos])) sb.append(buf[pos++]);
+        return sb.toString();
+    }
+
+    private String readLiteral() throws IOException {
+        sb.setLength(0);
+        while (fill(1) && Character.isLetter(buf[pos])) sb.append(buf[pos++]);
+        String lit = sb.toString();
+        return switch (lit) {
+            case "true", "false" -> lit;
+            case "null" -> null;
+            default -> throw err("ukjent literal " + lit);
+        };
+    }
+
+    private char nextNonWhitespace() throws IOException {
+        if (!skipWhitespace()) throw err("slutt");
+        return buf[pos];
+    }
+
+    /** Hopper over blanke tegn. Returnerer false ved slutten av input. */
+    private boolean skipWhitespace() throws IOException {
+        while (fill(1)) {
+            char c = buf[pos];
+            if (c == ' ' || c == '\n' || c == '\r' || c == '\t') pos++;
+            else return true;
+        }
+        return false;
+    }
+
+    /** Sørger for at minst {@code n} tegn ligger klare i bufferet. */
+    private boolean fill(int n) throws IOException {
+        if (limit - pos >= n) return true;
+        if (pos > 0) {
+            System.arraycopy(buf, pos, buf, 0, limit - pos);
+            limit -= pos;
+            pos = 0;
+        }
+        while (limit < n) {
+            int r = in.read(buf, limit, buf.length - limit);
+            if (r < 0) return false;
+            limit += r;
+        }
+        return true;
+    }
+
+    private static boolean isDigit(char c) { return c >= '0' && c <= '9'; }
+
+    private static boolean isNumberChar(char c) {
+        return isDigit(c) || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E';
+    }
+
+    private static RuntimeException err(String m) { return new RuntimeException("JSON-feil: " + m); }
+}
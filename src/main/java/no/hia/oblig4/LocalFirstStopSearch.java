@@ -0,0 +1,185 @@
+package no.hia.oblig4;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Samlet stoppsøk: svarer fra den lokale {@link StopSearch}-indeksen, og
+ * spør Entur-geocoderen bare når de lokale treffene er for få.
+ *
+ * Geocoder-kallet er ett asynkront forsøk med et fast tidsbudsjett for hele
+ * søket; kommer det ikke innen fristen, svarer vi med det vi har lokalt.
+ * Treffene slås sammen på NSR-id. Geocoderen gir stoppesteder
+ * (NSR:StopPlace), ikke quays, så et geocoder-treff med samme navn som et
+ * lokalt treff regnes også som samme sted og tas ikke med.
+ */
+final class LocalFirstStopSearch {
+
+    /** Ett treff; source er "local" eller "entur". */
+    static final class Hit {
+        final String id;
+        final String name;
+        final String source;
+        /** exact, prefix, word, substring, fuzzy eller geocoder. */
+        final String match;
+
+        Hit(String id, String name, String source, String match) {
+            this.id = id;
+            this.name = name;
+            this.source = source;
+            this.match = match;
+        }
+    }
+
+    static final class Result {
+        final List<Hit> hits;
+        /** skipped (nok lokale treff), disabled, ok, timeout eller error. */
+        final String geocoder;
+        final long millis;
+
+        Result(List<Hit> hits, String geocoder, long millis) {
+            this.hits = hits;
+            this.geocoder = geocoder;
+            this.millis = millis;
+        }
+    }
+
+    private final EnturClient entur;
+    private final long budgetMillis;
+    private final int minLocal;
+
+    /**
+     * @param entur        geocoder-klient, eller null for bare lokalt søk
+     * @param budgetMillis total tid søket kan bruke når geocoderen spørres (0 slår den av)
+     * @param minLocal     færre lokale treff enn dette regnes som tynt
+     */
+    LocalFirstStopSearch(EnturClient entur, long budgetMillis, int minLocal) {
+        this.entur = entur;
+        this.budgetMillis = budgetMillis;
+        this.minLocal = minLocal;
+    }
+
+    /** @param local lokal indeks, eller null hvis mock-dataene ikke er lastet ennå */
+    Result search(StopSearch local, String q, int limit) {
+        long t0 = System.nanoTime();
+        String term = q.trim();
+        Map<String, Hit> hits = new LinkedHashMap<>();
+        if (local != null) collectLocal(local, term, limit, hits);
+
+        if (hits.size() >= minLocal || hits.size() >= limit) {
+            return new Result(new ArrayList<>(hits.values()), "skipped", elapsedMillis(t0));
+        }
+        if (entur == null || budgetMillis <= 0) {
+            return new Result(new ArrayList<>(hits.values()), "disabled", elapsedMillis(t0));
+        }
+
+        long remaining = budgetMillis - elapsedMillis(t0);
+        String status;
+        CompletableFuture<String> call = entur.searchStopsAsync(term, limit, Duration.ofMillis(Math.max(1, remaining)));
+        try {
+            String body = call.get(Math.max(1, remaining), TimeUnit.MILLISECONDS);
+            mergeGeocoder(body, limit, hits);
+            status = "ok";
+        } catch (TimeoutException e) {
+            call.cancel(true);
+            status = "timeout";
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof HttpTimeoutException) {
+                status = "timeout";
+            } else {
+                System.out.println("⚠️  Geocoder feilet for \"" + term + "\": " + e.getCause());
+                status = "error";
+            }
+        } catch (IOException | RuntimeException e) {
+            System.out.println("⚠️  Geocoder feilet for \"" + term + "\": " + e.getMessage());
+            status = "error";
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            status = "timeout";
+        }
+
+        return new Result(new ArrayList<>(hits.values()), status, elapsedMillis(t0));
+    }
+
+    /** Autocomplete først, så delstreng, og er det fortsatt tomt, "mente du". */
+    private static void collectLocal(StopSearch local, String term, int limit, Map<String, Hit> hits) {
+        for (StopSearch.Suggestion s : local.suggest(term, limit)) {
+            for (String id : s.ids) {
+                if (hits.size() >= limit) return;
+                hits.putIfAbsent(id, new Hit(id, s.name, "local", s.match));
+            }
+        }
+        for (String id : local.lookup(term)) {
+            if (hits.size() >= limit) return;
+            hits.putIfAbsent(id, new Hit(id, local.getStopName(id), "local", "substring"));
+        }
+        if (!hits.isEmpty()) return;
+
+        String guess = local.didYouMean(term);
+        if (guess == null) return;
+        for (String id : local.lookup(guess)) {
+            if (hits.size() >= limit) return;
+            hits.putIfAbsent(id, new Hit(id, local.getStopName(id), "local", "fuzzy"));
+        }
+    }
+
+    /** Leser features[].properties.{id, name} fra geocoder-svaret og legger til nye steder. */
+    private static void mergeGeocoder(String body, int limit, Map<String, Hit> hits) throws IOException {
+        Set<String> localNames = new HashSet<>();
+        for (Hit h : hits.values()) localNames.add(h.name.toLowerCase(Locale.ROOT));
+
+        try (JsonPullReader r = new JsonPullReader(new StringReader(body))) {
+            r.beginObject();
+            while (r.hasNext()) {
+                if (!r.nextName().equals("features")) {
+                    r.skipValue();
+                    continue;
+                }
+                r.beginArray();
+                while (r.hasNext()) {
+                    String id = null, name = null;
+                    r.beginObject();
+                    while (r.hasNext()) {
+                        if (!r.nextName().equals("properties")) {
+                            r.skipValue();
+                            continue;
+                        }
+                        r.beginObject();
+                        while (r.hasNext()) {
+                            switch (r.nextName()) {
+                                case "id"   -> id = r.nextString();
+                                case "name" -> name = r.nextString();
+                                default     -> r.skipValue();
+                            }
+                        }
+                        r.endObject();
+                    }
+                    r.endObject();
+
+                    if (id == null || name == null || !id.startsWith("NSR:") || hits.size() >= limit) continue;
+                    if (localNames.contains(name.toLowerCase(Locale.ROOT))) continue;
+                    hits.putIfAbsent(id, new Hit(id, name, "entur", "geocoder"));
+                }
+                r.endArray();
+            }
+            r.endObject();
+        }
+    }
+
+    private static long elapsedMillis(long t0) {
+        return (System.nanoTime() - t0) / 1_000_000;
+    }
+}
@@ -13,8 +13,9 @@ public class Main5 {
         String journeysPath = "src/main/resources/Rutetabell/Rutetider630.json";
         String quaysPath    = "src/main/resources/Rutetabell/stops_630_only.json";
 
-        StopSearch search = new StopSearch(quaysPath);
-        DirectTripFinder finder = new DirectTripFinder(journeysPath);
+        StopRegistry stops = StopRegistry.open(quaysPath, TimetableSnapshot.DEFAULT_PATH);
+        StopSearch search = new StopSearch(stops);
+        DirectTripFinder finder = DirectTripFinder.open(journeysPath, TimetableSnapshot.DEFAULT_PATH, stops);
 
         Scanner sc = new Scanner(System.in);
 
@@ -24,7 +25,7 @@ public class Main5 {
             System.out.print("Søk etter START-stopp (vanlig navn): ");
             String startSearch = sc.nextLine().trim();
 
-            startSearch = maybeCorrectPlaceInput(startSearch, "START-stopp", sc);
+            startSearch = maybeCorrectPlaceInput(search, startSearch, "START-stopp", sc);
 
             startCandidates = search.lookup(startSearch);
 
@@ -34,7 +35,7 @@ public class Main5 {
 
             System.out.println("Fant ingen stopp som matcher: \"" + startSearch + "\".");
 
-            if (!looksLikeKnownPlace(startSearch)) {
+            if (!looksLikeKnownPlace(search, startSearch)) {
                 System.out.println("\nJeg forsto ikke hvor du mente som START-stopp.");
                 System.out.println("Rute 630 går mellom Halden, Fredrikstad-området og Moss.");
                 System.out.println("Prøv for eksempel å søke på \"Halden\", \"Fredrikstad\", \"Moss\"");
@@ -66,7 +67,7 @@ public class Main5 {
             System.out.print("\nSøk etter DESTINASJON-stopp (vanlig navn): ");
             String destSearch = sc.nextLine().trim();
 
-            destSearch = maybeCorrectPlaceInput(destSearch, "DESTINASJON-stopp", sc);
+            destSearch = maybeCorrectPlaceInput(search, destSearch, "DESTINASJON-stopp", sc);
 
             destCandidates = search.lookup(destSearch);
 
@@ -76,7 +77,7 @@ public class Main5 {
 
             System.out.println("Fant ingen stopp som matcher: \"" + destSearch + "\".");
 
-            if (!looksLikeKnownPlace(destSearch)) {
+            if (!looksLikeKnownPlace(search, destSearch)) {
                 System.out.println("\nJeg forsto ikke hvor du mente som DESTINASJON-stopp.");
                 System.out.println("Rute 630 går mellom Halden, Fredrikstad-området og Moss.");
                 System.out.println("Prøv for eksempel å søke på \"Halden\", \"Fredrikstad\", \"Moss\"");
@@ -144,75 +145,43 @@ public class Main5 {
             Scanner sc
     ) {
 
-        String chosenStartName = search.getStopName(chosenStartId);
-        String chosenDestName  = search.getStopName(chosenDestId);
-
-        // 1) Samme start-stopp, prøv andre destinasjonsstopp
-        for (String destId : destCandidates) {
-            if (destId.equals(chosenDestId)) continue; // hopp over den brukeren valgte
-
-            List<DirectTripFinder.Trip> trips = finder.findTrips(chosenStartId, destId);
-            if (!trips.isEmpty()) {
-                String destName = search.getStopName(destId);
-                System.out.println("\nFant en alternativ rute med samme START-stopp:");
-                System.out.println("  Start: " + chosenStartName + " (" + chosenStartId + ")");
-                System.out.println("  Stopp: " + destName + " (" + destId + ")");
-                System.out.println("\nFant " + trips.size() + " direkte avganger denne dagen.");
-
-                showTripsInteractively(trips,
-                        chosenStartName, chosenStartId,
-                        destName, destId,
-                        search,
-                        sc);
-                return true;
-            }
-        }
-
-        for (String startId : startCandidates) {
-            if (startId.equals(chosenStartId)) continue; // hopp over den brukeren valgte
-
-            List<DirectTripFinder.Trip> trips = finder.findTrips(startId, chosenDestId);
-            if (!trips.isEmpty()) {
-                String startName = search.getStopName(startId);
-                System.out.println("\nFant en alternativ rute med samme DESTINASJON-stopp:");
-                System.out.println("  Start: " + startName + " (" + startId + ")");
-                System.out.println("  Stopp: " + chosenDestName + " (" + chosenDestId + ")");
-                System.out.println("\nFant " + trips.size() + " direkte avganger denne dagen.");
-
-                showTripsInteractively(trips,
-                        startName, startId,
-                        chosenDestName, chosenDestId,
-                        search,
-                        sc);
-                return true;
+        // Alle kombinasjoner av kandidatene i ett søk, rangert av finderen
+        List<DirectTripFinder.PairTrips> pairs = finder.findTripsBetween(
+                finder.quayIndexes(startCandidates),
+                finder.quayIndexes(destCandidates),
+                DirectTripFinder.TripWindow.ALL_DAY);
+        if (pairs.isEmpty()) return false;
+
+        // Foretrekk å beholde valgt START-stopp, deretter valgt DESTINASJON-stopp
+        DirectTripFinder.PairTrips best = null;
+        String heading = "\nFant en alternativ rute mellom:";
+        for (DirectTripFinder.PairTrips p : pairs) {
+            if (p.fromQuayId.equals(chosenStartId)) {
+                best = p;
+                heading = "\nFant en alternativ rute med samme START-stopp:";
+                break;
             }
         }
-
-
-        for (String startId : startCandidates) {
-            String startName = search.getStopName(startId);
-
-            for (String destId : destCandidates) {
-                String destName = search.getStopName(destId);
-
-                if (startId.equals(chosenStartId) && destId.equals(chosenDestId)) {
-                    continue; // hopp over den brukeren allerede prøvde
-                }
-
-                List<DirectTripFinder.Trip> trips = finder.findTrips(startId, destId);
-                if (!trips.isEmpty()) {
-                    System.out.println("\nFant en alternativ rute mellom:");
-                    System.out.println("  Start: " + startName + " (" + startId + ")");
-                    System.out.println("  Stopp: " + destName + " (" + destId + ")");
-                    System.out.println("\nFant " + trips.size() + " direkte avganger denne dagen.");
-
-                    showTripsInteractively(trips, startName, startId, destName, destId, search, sc);
-                    return true;
+        if (best == null) {
+            for (DirectTripFinder.PairTrips p : pairs) {
+                if (p.toQuayId.equals(chosenDestId)) {
+                    best = p;
+                    heading = "\nFant en alternativ rute med samme DESTINASJON-stopp:";
+                    break;
                 }
             }
         }
+        if (best == null) best = pairs.get(0);
 
-        return false;
+        String startName = search.getStopName(best.fromQuayId);
+        String destName  = search.getStopName(best.toQuayId);
+        System.out.println(heading);
+        System.out.println("  Start: " + startName + " (" + best.fromQuayId + ")");
+        System.out.println("  Stopp: " + destName + " (" + best.toQuayId + ")");
+        System.out.println("\nFant " + best.trips.size() + " direkte avganger denne dagen.");
+
+        showTripsInteractively(best.trips, startName, best.fromQuayId, destName, best.toQuayId, search, sc);
+        return true;
     }
 
     private static void showTripsInteractively(List<DirectTripFinder.Trip> trips,
@@ -454,68 +423,26 @@ public class Main5 {
     }
 
 
-    private static String maybeCorrectPlaceInput(String input, String role, Scanner sc) {
-        String original = input;
-        String guess = guessKnownPlaceName(input);
+    /**
+     * Spør "mente du" når navnet ikke gir treff, med nærmeste navn fra
+     * stoppregisteret ({@link StopSearch#didYouMean}).
+     */
+    private static String maybeCorrectPlaceInput(StopSearch search, String input, String role, Scanner sc) {
+        if (!search.lookup(input).isEmpty()) return input;
+        String guess = search.didYouMean(input);
 
-        if (guess != null && !guess.equalsIgnoreCase(original)) {
+        if (guess != null && !guess.equalsIgnoreCase(input)) {
             System.out.print("Mente du \"" + capitalize(guess) + "\" som " + role + "? (j/n): ");
             String ans = sc.nextLine().trim().toLowerCase(Locale.ROOT);
             if (ans.startsWith("j")) {
                 return guess;
             }
         }
-        return original;
-    }
-
-    private static boolean looksLikeKnownPlace(String input) {
-        return guessKnownPlaceName(input) != null;
-    }
-
-    private static String guessKnownPlaceName(String raw) {
-        if (raw == null) return null;
-        String u = raw.trim().toLowerCase(Locale.ROOT);
-        if (u.isEmpty()) return null;
-
-        String[] known = {"halden", "fredrikstad", "moss"};
-        int bestDist = Integer.MAX_VALUE;
-        String best = null;
-
-        for (String k : known) {
-            int d = levenshtein(u, k);
-            if (d < bestDist) {
-                bestDist = d;
-                best = k;
-            }
-        }
-
-        if (bestDist <= 3) {
-            return best;
-        }
-        return null;
+        return input;
     }
 
-    private static int levenshtein(String a, String b) {
-        int n = a.length();
-        int m = b.length();
-        int[][] dp = new int[n + 1][m + 1];
-
-        for (int i = 0; i <= n; i++) dp[i][0] = i;
-        for (int j = 0; j <= m; j++) dp[0][j] = j;
-
-        for (int i = 1; i <= n; i++) {
-            char ca = a.charAt(i - 1);
-            for (int j = 1; j <= m; j++) {
-                char cb = b.charAt(j - 1);
-                int cost = (ca == cb) ? 0 : 1;
-                dp[i][j] = Math.min(
-                        Math.min(dp[i - 1][j] + 1,
-                                dp[i][j - 1] + 1),
-                        dp[i - 1][j - 1] + cost
-                );
-            }
-        }
-        return dp[n][m];
+    private static boolean looksLikeKnownPlace(StopSearch search, String input) {
+        return search.didYouMean(input) != null;
     }
 
     private static String capitalize(String s) {
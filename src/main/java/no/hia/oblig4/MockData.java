@@ -0,0 +1,143 @@
+package no.hia.oblig4;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Ett komplett, uforanderlig sett med mock-data: stoppregister, navnesøk,
+ * nærmeste-stopp, rutetabell og reiseplanlegger, bygget fra samme versjon
+ * av filene.
+ *
+ * WebApp publiserer dette via én AtomicReference. En forespørsel henter
+ * referansen én gang og bruker den hele veien, så den ser alltid et
+ * konsistent sett selv om en ny versjon publiseres midt i.
+ */
+final class MockData {
+
+    final long version;
+    final StopRegistry stops;
+    final StopSearch stopSearch;
+    final NearestStopFinder nearestStops;
+    final DirectTripFinder tripFinder;
+    final JourneyPlanner journeyPlanner;
+    final ConnectionScan connectionScan;
+    /** Ferdig utregnede turer per (fra, til); null når matrisen er slått av. */
+    final TripMatrix tripMatrix;
+    /** Tid fra start av bygging til alt var klart. */
+    final long buildMillis;
+
+    private MockData(long version, StopRegistry stops, StopSearch stopSearch,
+                     NearestStopFinder nearestStops, DirectTripFinder tripFinder,
+                     JourneyPlanner journeyPlanner, ConnectionScan connectionScan,
+                     TripMatrix tripMatrix, long buildMillis) {
+        this.version = version;
+        this.stops = stops;
+        this.stopSearch = stopSearch;
+        this.nearestStops = nearestStops;
+        this.tripFinder = tripFinder;
+        this.journeyPlanner = journeyPlanner;
+        this.connectionScan = connectionScan;
+        this.tripMatrix = tripMatrix;
+        this.buildMillis = buildMillis;
+    }
+
+    /**
+     * Bygger et nytt datasett i bakgrunnen. Stoppene og rutetabellen parses
+     * parallelt; indeksene som trenger begge bygges når de er klare.
+     * Tid og utfall per datasett registreres i {@code status}.
+     */
+    static CompletableFuture<MockData> load(String journeysPath, String quaysPath, String snapshotPath,
+                                            TripMatrix.Mode matrixMode, long version,
+                                            StartupStatus status, Executor executor) {
+        long t0 = System.nanoTime();
+
+        CompletableFuture<StopRegistry> stops = CompletableFuture.supplyAsync(() ->
+                status.run("stops", () -> StopRegistry.open(quaysPath, snapshotPath)), executor);
+        CompletableFuture<DirectTripFinder.Columns> timetable = CompletableFuture.supplyAsync(() ->
+                status.run("timetable", () -> DirectTripFinder.readColumns(journeysPath, snapshotPath)), executor);
+
+        CompletableFuture<StopSearch> search = stops.thenApplyAsync(r ->
+                status.run("stopSearch", () -> new StopSearch(r)), executor);
+        CompletableFuture<NearestStopFinder> nearest = stops.thenApplyAsync(r ->
+                status.run("nearestStops", () -> new NearestStopFinder(r)), executor);
+        CompletableFuture<DirectTripFinder> trips = stops.thenCombineAsync(timetable, (r, c) ->
+                status.run("tripFinder", () -> new DirectTripFinder(c, r)), executor);
+        CompletableFuture<JourneyPlanner> planner = trips.thenApplyAsync(f ->
+                status.run("journeyPlanner", () -> new JourneyPlanner(f)), executor);
+        CompletableFuture<ConnectionScan> csa = trips.thenApplyAsync(f ->
+                status.run("connectionScan", () -> new ConnectionScan(f)), executor);
+        CompletableFuture<TripMatrix> matrix = trips.thenApplyAsync(f ->
+                status.run("tripMatrix", () -> TripMatrix.build(f, matrixMode)), executor);
+
+        search.whenComplete((v, e) -> { if (e != null) status.failed("stopSearch", e); });
+        nearest.whenComplete((v, e) -> { if (e != null) status.failed("nearestStops", e); });
+        trips.whenComplete((v, e) -> { if (e != null) status.failed("tripFinder", e); });
+        planner.whenComplete((v, e) -> { if (e != null) status.failed("journeyPlanner", e); });
+        csa.whenComplete((v, e) -> { if (e != null) status.failed("connectionScan", e); });
+        matrix.whenComplete((v, e) -> { if (e != null) status.failed("tripMatrix", e); });
+
+        return CompletableFuture.allOf(search, nearest, planner, csa, matrix).thenApply(v ->
+                new MockData(version, stops.join(), search.join(), nearest.join(), trips.join(),
+                        planner.join(), csa.join(), matrix.join(), (System.nanoTime() - t0) / 1_000_000));
+    }
+
+    /** Direkte turer: oppslag i matrisen hvis den er bygget, ellers søk i rutetabellen. */
+    DirectTripFinder.TripPage findTrips(String fromId, String toId, DirectTripFinder.TripWindow window) {
+        return tripMatrix != null
+                ? tripMatrix.findTrips(fromId, toId, window)
+                : tripFinder.findTrips(fromId, toId, window);
+    }
+
+    /** Turene for et quay-par, med paret som faktisk ble brukt. */
+    record ResolvedTrips(String fromId, String toId, DirectTripFinder.TripPage page) {
+    }
+
+    /**
+     * Direkte turer slik /api/mock/trips og batch-endepunktet svarer: id-ene
+     * normaliseres, og gir første side ingen turer, brukes beste par mellom
+     * quayene på de samme stoppestedene. Kaster IllegalArgumentException ved
+     * ugyldig cursor.
+     */
+    ResolvedTrips resolveTrips(String fromId, String toId, DirectTripFinder.TripWindow window) {
+        fromId = StopRegistry.normalizeQuayId(fromId);
+        toId = StopRegistry.normalizeQuayId(toId);
+        DirectTripFinder.TripPage page = findTrips(fromId, toId, window);
+
+        // Bare på første side: cursoren er en posisjon i avgangslista til
+        // fromId, og klienten fortsetter med paret som står i svaret
+        if (!page.trips.isEmpty() || window.cursor != null) {
+            return new ResolvedTrips(fromId, toId, page);
+        }
+
+        int fromQ = stops.indexOf(fromId);
+        int toQ = stops.indexOf(toId);
+        if (fromQ < 0 || toQ < 0) {
+            System.out.println("❌ Turer: mangler navn for " + fromId + "/" + toId + ", kan ikke prøve alternativ retning.");
+            return new ResolvedTrips(fromId, toId, page);
+        }
+
+        // Alle quays på de to stoppestedene i ett søk, beste par først
+        List<DirectTripFinder.PairTrips> pairs = tripFinder.findTripsBetween(
+                stops.placeQuays(stops.placeOf(fromQ)),
+                stops.placeQuays(stops.placeOf(toQ)),
+                window);
+        if (pairs.isEmpty()) {
+            System.out.println("❌ Turer: fant ingen alternativ kombinasjon for " + fromId + " → " + toId
+                    + " (" + stops.name(fromQ) + " → " + stops.name(toQ) + ")");
+            return new ResolvedTrips(fromId, toId, page);
+        }
+
+        DirectTripFinder.PairTrips best = pairs.get(0);
+        System.out.println("🔄 Turer: fant alternativ kombinasjon " + best.fromQuayId + " → " + best.toQuayId
+                + " for " + fromId + " → " + toId);
+        return new ResolvedTrips(best.fromQuayId, best.toQuayId,
+                findTrips(best.fromQuayId, best.toQuayId, window));
+    }
+
+    /** Navnene på datasettene som {@link #load} rapporterer til StartupStatus. */
+    static StartupStatus newStatus() {
+        return new StartupStatus("stops", "timetable", "stopSearch", "nearestStops", "tripFinder", "journeyPlanner",
+                "connectionScan", "tripMatrix");
+    }
+}
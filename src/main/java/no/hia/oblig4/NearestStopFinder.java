@@ -1,10 +1,25 @@
 package no.hia.oblig4;
 
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.util.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
+/**
+ * Nærmeste stopp til en koordinat, via et uniformt rutenett.
+ *
+ * Stoppene sorteres på rute i nettet (omtrent kvadratiske ruter i meter,
+ * størrelse etter hvor tett stoppene ligger), med koordinatene i
+ * sammenhengende arrays i samme rekkefølge. Et k-nærmeste-søk går utover
+ * i ringer fra ruta punktet ligger i, og stopper når neste ring ikke kan
+ * inneholde noe nærmere enn det k-te treffet. Et radius-søk ser bare på
+ * rutene som dekker sirkelen.
+ *
+ * Avstandene regnes med {@link GeoKernel}: koordinatene ligger som
+ * forhåndsberegnede sinus/cosinus av halve vinkler, så haversine-leddet er
+ * uten trigonometri per stopp og kan sammenlignes direkte. Hver rad av
+ * ruter i et søk er et sammenhengende område i arrayene og regnes i ett
+ * kall, vektorisert når Vector API er tilgjengelig.
+ */
 public class NearestStopFinder {
 
     public static final class Stop {
@@ -21,7 +36,36 @@ public class NearestStopFinder {
         }
     }
 
-    private final List<Stop> stops = new ArrayList<>();
+    /** Et stopp med avstanden fra søkepunktet. */
+    public static final class Nearby {
+        public final Stop stop;
+        public final double distanceMeters;
+
+        Nearby(Stop stop, double distanceMeters) {
+            this.stop = stop;
+            this.distanceMeters = distanceMeters;
+        }
+    }
+
+    private static final double METERS_PER_DEGREE = GeoKernel.EARTH_RADIUS * Math.PI / 180.0;
+
+    /** Felles stoppregister; her brukes bare stoppene som har koordinater. */
+    private final StopRegistry registry;
+
+    /* Rutenettet: ruta (r, c) har stoppene order[cellStart[r * cols + c] .. cellStart[r * cols + c + 1]). */
+    private final double minLat;
+    private final double minLon;
+    private final double cellLat;
+    private final double cellLon;
+    private final int rows;
+    private final int cols;
+    private final int[] cellStart;
+    /** Registerindeks per stopp, i rute-rekkefølge. */
+    private final int[] order;
+    /** Koordinatene i samme rekkefølge som {@link #order}. */
+    private final GeoKernel.Points points;
+    /** Største |breddegrad| i datasettet; der er en lengdegrad kortest. */
+    private final double maxAbsLat;
 
     /**
      * Leser inn alle stopp fra JSON-fila og lagrer id/navn/koordinater.
@@ -31,40 +75,91 @@ public class NearestStopFinder {
      *  - "lat": Number
      *  - "lon": Number
      */
-    @SuppressWarnings("unchecked")
     public NearestStopFinder(String quaysJsonPath) throws Exception {
-        String json = Files.readString(Path.of(quaysJsonPath), StandardCharsets.UTF_8);
+        this(StopRegistry.load(quaysJsonPath));
+    }
 
-        // Vi gjenbruker mini-JSON-parseren fra stopSearch
-        List<Map<String, Object>> quays =
-                (List<Map<String, Object>>) StopSearch.MiniJson.parse(json);
+    public NearestStopFinder(StopRegistry registry) {
+        this.registry = registry;
 
-        for (Map<String, Object> q : quays) {
-            String id   = (String) q.get("id");              // NSR:Quay:xxxx
-            String navn = (String) q.getOrDefault("navn", q.get("name"));
+        // Stopp uten koordinater kan ikke være "nærmest"
+        IntList idx = new IntList(registry.size());
+        for (int i = 0; i < registry.size(); i++) {
+            if (registry.hasCoordinates(i)) idx.add(i);
+        }
+        int[] withCoords = idx.toArray();
+        int n = withCoords.length;
 
-            // JUSTER DISSE FELTENE hvis JSON-fila di bruker andre navn:
-            Object latObj = q.get("lat");
-            Object lonObj = q.get("lon");
+        double loLat = 90, hiLat = -90, loLon = 180, hiLon = -180, absLat = 0;
+        for (int i : withCoords) {
+            loLat = Math.min(loLat, registry.lat(i));
+            hiLat = Math.max(hiLat, registry.lat(i));
+            loLon = Math.min(loLon, registry.lon(i));
+            hiLon = Math.max(hiLon, registry.lon(i));
+            absLat = Math.max(absLat, Math.abs(registry.lat(i)));
+        }
+        if (n == 0) {
+            loLat = hiLat = loLon = hiLon = 0;
+        }
 
-            if (id == null || navn == null || latObj == null || lonObj == null) continue;
+        // Rutestørrelse: omtrent to stopp per rute i snitt, mellom 200 m og 20 km
+        double cosMid = Math.cos(Math.toRadians((loLat + hiLat) / 2));
+        double area = Math.max(1, (hiLat - loLat) * METERS_PER_DEGREE)
+                * Math.max(1, (hiLon - loLon) * METERS_PER_DEGREE * cosMid);
+        double cellMeters = Math.max(200, Math.min(20000, Math.sqrt(area / Math.max(1, n / 2.0))));
 
-            double lat = toDouble(latObj);
-            double lon = toDouble(lonObj);
+        minLat = loLat;
+        minLon = loLon;
+        maxAbsLat = absLat;
+        cellLat = cellMeters / METERS_PER_DEGREE;
+        cellLon = cellMeters / (METERS_PER_DEGREE * Math.max(0.01, cosMid));
+        rows = (int) ((hiLat - loLat) / cellLat) + 1;
+        cols = (int) ((hiLon - loLon) / cellLon) + 1;
 
-            stops.add(new Stop(id, navn, lat, lon));
+        // Telle-sortering på rute
+        int[] cellOf = new int[n];
+        cellStart = new int[rows * cols + 1];
+        for (int k = 0; k < n; k++) {
+            int i = withCoords[k];
+            cellOf[k] = row(registry.lat(i)) * cols + col(registry.lon(i));
+            cellStart[cellOf[k] + 1]++;
+        }
+        for (int c = 0; c < rows * cols; c++) cellStart[c + 1] += cellStart[c];
+        int[] fill = Arrays.copyOf(cellStart, rows * cols);
+        order = new int[n];
+        double[] lat = new double[n];
+        double[] lon = new double[n];
+        for (int k = 0; k < n; k++) {
+            int pos = fill[cellOf[k]]++;
+            int i = withCoords[k];
+            order[pos] = i;
+            lat[pos] = registry.lat(i);
+            lon[pos] = registry.lon(i);
         }
+        points = new GeoKernel.Points(lat, lon);
 
-        System.out.println("📍 nearestStopFinder: lastet " + stops.size() + " stopp med koordinater");
+        System.out.println("📍 nearestStopFinder: lastet " + n + " stopp med koordinater ("
+                + rows + "x" + cols + " ruter à " + Math.round(cellMeters) + " m, "
+                + (GeoKernel.VECTOR ? "vektorisert" : "skalar") + " avstand)");
     }
 
-    private static double toDouble(Object o) {
-        if (o instanceof Number n) return n.doubleValue();
-        return Double.parseDouble(o.toString());
+    /**
+     * Åpner stoppene fra binært snapshot hvis det er ferskt, ellers fra JSON.
+     */
+    public static NearestStopFinder open(String quaysJsonPath, String snapshotPath) throws Exception {
+        return new NearestStopFinder(StopRegistry.open(quaysJsonPath, snapshotPath));
     }
 
     public boolean isEmpty() {
-        return stops.isEmpty();
+        return order.length == 0;
+    }
+
+    private int row(double latitude) {
+        return (int) Math.floor((latitude - minLat) / cellLat);
+    }
+
+    private int col(double longitude) {
+        return (int) Math.floor((longitude - minLon) / cellLon);
     }
 
     /**
@@ -72,32 +167,149 @@ public class NearestStopFinder {
      * Returnerer null hvis vi ikke har noen stopp med koordinater.
      */
     public Stop findNearest(double lat, double lon) {
-        if (stops.isEmpty()) return null;
+        List<Nearby> one = findKNearest(lat, lon, 1);
+        return one.isEmpty() ? null : one.get(0).stop;
+    }
+
+    /**
+     * De k nærmeste stoppene til (lat,lon), nærmest først.
+     */
+    public List<Nearby> findKNearest(double lat, double lon, int k) {
+        if (k <= 0 || order.length == 0) return List.of();
+        k = Math.min(k, order.length);
+
+        // Sorterte beste-lister (haversine-ledd, posisjon), innsetting er O(k)
+        double[] best = new double[k];
+        int[] bestPos = new int[k];
+        int found = 0;
 
-        Stop best = null;
-        double bestDist = Double.MAX_VALUE;
+        GeoKernel.Query q = new GeoKernel.Query(lat, lon);
+        double[] buf = new double[Math.min(order.length, 64)];
+        // Et søkepunkt utenfor rutenettet starter i nærmeste rute på kanten. Avstanden
+        // til en rute blir bare større av å ligge lenger ute, så ringgrensen under holder
+        int r0 = Math.max(0, Math.min(rows - 1, row(lat))), c0 = Math.max(0, Math.min(cols - 1, col(lon)));
+        int maxRing = Math.max(Math.max(r0, rows - 1 - r0), Math.max(c0, cols - 1 - c0));
+        // Alt utenfor ringene 0..ρ-1 er minst ρ-1 hele ruter unna; lengdegrader er kortest ved høyeste breddegrad
+        double ringStep = 0.99 * Math.min(cellLat * METERS_PER_DEGREE,
+                cellLon * METERS_PER_DEGREE * Math.cos(Math.toRadians(Math.max(maxAbsLat, Math.abs(lat)))));
 
-        for (Stop s : stops) {
-            double d = haversineMeters(lat, lon, s.lat, s.lon);
-            if (d < bestDist) {
-                bestDist = d;
-                best = s;
+        for (int ring = 0; ring <= maxRing; ring++) {
+            if (found == k && best[k - 1] <= GeoKernel.term(Math.max(0, ring - 1) * ringStep)) break;
+
+            for (int r = Math.max(0, r0 - ring); r <= Math.min(rows - 1, r0 + ring); r++) {
+                int cLo = Math.max(0, c0 - ring), cHi = Math.min(cols - 1, c0 + ring);
+                if (cLo > cHi) continue;
+                if (r == r0 - ring || r == r0 + ring) {
+                    // Kantrad: hele spennet er ett sammenhengende område
+                    int from = cellStart[r * cols + cLo], to = cellStart[r * cols + cHi + 1];
+                    if (buf.length < to - from) buf = new double[to - from];
+                    GeoKernel.terms(points, from, to, q, buf);
+                    for (int p = from; p < to; p++) {
+                        found = offer(best, bestPos, found, buf[p - from], p);
+                    }
+                } else {
+                    // Midtrad (ring >= 1): bare de to kantrutene
+                    for (int c = c0 - ring; c <= c0 + ring; c += 2 * ring) {
+                        if (c < cLo || c > cHi) continue;
+                        int cell = r * cols + c;
+                        for (int p = cellStart[cell]; p < cellStart[cell + 1]; p++) {
+                            found = offer(best, bestPos, found, GeoKernel.term(points, p, q), p);
+                        }
+                    }
+                }
             }
         }
-        return best;
+
+        List<Nearby> out = new ArrayList<>(found);
+        for (int i = 0; i < found; i++) out.add(new Nearby(toStop(order[bestPos[i]]), GeoKernel.meters(best[i])));
+        return out;
+    }
+
+    /** Setter (a, p) inn i den sorterte beste-lista hvis den er god nok; returnerer nytt antall. */
+    private static int offer(double[] best, int[] bestPos, int found, double a, int p) {
+        int k = best.length;
+        if (found == k && a >= best[k - 1]) return found;
+
+        int at = found == k ? k - 1 : found++;
+        while (at > 0 && best[at - 1] > a) {
+            best[at] = best[at - 1];
+            bestPos[at] = bestPos[at - 1];
+            at--;
+        }
+        best[at] = a;
+        bestPos[at] = p;
+        return found;
     }
 
     /**
-     * Haversine-formel: avstand i meter mellom to koordinater.
+     * Alle stopp innen {@code meters} fra (lat,lon), nærmest først.
      */
-    private static double haversineMeters(double lat1, double lon1, double lat2, double lon2) {
-        final double R = 6371000.0; // jordradius i meter
-        double dLat = Math.toRadians(lat2 - lat1);
-        double dLon = Math.toRadians(lon2 - lon1);
-        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
-                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
-                * Math.sin(dLon / 2) * Math.sin(dLon / 2);
-        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
-        return R * c;
+    public List<Nearby> withinRadius(double lat, double lon, double meters) {
+        if (meters < 0 || order.length == 0) return List.of();
+
+        double dLat = meters / METERS_PER_DEGREE;
+        double cosEdge = Math.cos(Math.toRadians(Math.min(89.9, Math.abs(lat) + dLat)));
+        double dLon = meters / (METERS_PER_DEGREE * Math.max(1e-6, cosEdge));
+        int rLo = Math.max(0, row(lat - dLat)), rHi = Math.min(rows - 1, row(lat + dLat));
+        int cLo = Math.max(0, col(lon - dLon)), cHi = Math.min(cols - 1, col(lon + dLon));
+        if (cLo > cHi) return List.of();
+
+        GeoKernel.Query q = new GeoKernel.Query(lat, lon);
+        double limit = GeoKernel.term(meters);
+        double[] buf = new double[64];
+        List<double[]> hits = new ArrayList<>();
+        for (int r = rLo; r <= rHi; r++) {
+            // Rutene i en rad ligger etter hverandre i arrayene
+            int from = cellStart[r * cols + cLo], to = cellStart[r * cols + cHi + 1];
+            if (buf.length < to - from) buf = new double[to - from];
+            GeoKernel.terms(points, from, to, q, buf);
+            for (int p = from; p < to; p++) {
+                if (buf[p - from] > limit) continue;
+                double d = GeoKernel.meters(buf[p - from]);
+                if (d <= meters) hits.add(new double[] { d, p });
+            }
+        }
+
+        hits.sort((a, b) -> Double.compare(a[0], b[0]));
+        List<Nearby> out = new ArrayList<>(hits.size());
+        for (double[] h : hits) out.add(new Nearby(toStop(order[(int) h[1]]), h[0]));
+        return out;
+    }
+
+    /**
+     * Nærmeste stopp innen {@code meters} fra (lat,lon), eller null. Ser bare
+     * på rutene som dekker sirkelen, så et punkt langt fra alle stopp koster
+     * ikke mer enn et punkt midt i byen (i motsetning til
+     * {@link #findKNearest}, som leter til den finner noe).
+     */
+    public Nearby nearestWithin(double lat, double lon, double meters) {
+        if (meters < 0 || order.length == 0) return null;
+
+        double dLat = meters / METERS_PER_DEGREE;
+        double cosEdge = Math.cos(Math.toRadians(Math.min(89.9, Math.abs(lat) + dLat)));
+        double dLon = meters / (METERS_PER_DEGREE * Math.max(1e-6, cosEdge));
+        int rLo = Math.max(0, row(lat - dLat)), rHi = Math.min(rows - 1, row(lat + dLat));
+        int cLo = Math.max(0, col(lon - dLon)), cHi = Math.min(cols - 1, col(lon + dLon));
+        if (cLo > cHi) return null;
+
+        GeoKernel.Query q = new GeoKernel.Query(lat, lon);
+        double best = GeoKernel.term(meters);
+        int bestPos = -1;
+        for (int r = rLo; r <= rHi; r++) {
+            for (int p = cellStart[r * cols + cLo], to = cellStart[r * cols + cHi + 1]; p < to; p++) {
+                double a = GeoKernel.term(points, p, q);
+                if (a < best || (a == best && bestPos < 0)) {
+                    best = a;
+                    bestPos = p;
+                }
+            }
+        }
+        if (bestPos < 0) return null;
+        double d = GeoKernel.meters(best);
+        return d <= meters ? new Nearby(toStop(order[bestPos]), d) : null;
+    }
+
+    private Stop toStop(int i) {
+        return new Stop(registry.id(i), registry.name(i), registry.lat(i), registry.lon(i));
     }
 }
@@ -0,0 +1,166 @@
+package no.hia.oblig4;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Prefiks-trie over normaliserte stoppnavn, for autocomplete.
+ *
+ * Hvert navn legges inn fra starten og fra starten av hvert senere ord, så
+ * "bus" finner både "bussterminalen" og "Halden bussterminal". Hver node
+ * har de {@link #MAX_K} beste navnene i sitt deltre ferdig rangert, så et
+ * oppslag er O(lengde på prefikset + k): gå nedover trien og les lista.
+ *
+ * Rangering: treff fra starten av navnet før treff midt i navnet, deretter
+ * korteste navn (et eksakt treff er alltid kortest), deretter alfabetisk.
+ *
+ * Trien bygges med objekter og fryses til parallelle arrays.
+ */
+final class PrefixIndex {
+
+    static final int MAX_K = 10;
+
+    /** Barna til node n ligger i childChar/childNode[childStart[n] .. childStart[n + 1]), sortert på tegn. */
+    private final int[] childStart;
+    private final char[] childChar;
+    private final int[] childNode;
+
+    /** Topplista til node n ligger i topEntry[topStart[n] .. topStart[n + 1]), som (navn << 1) | midtITreff. */
+    private final int[] topStart;
+    private final int[] topEntry;
+
+    private static final class Node {
+        final TreeMap<Character, Node> children = new TreeMap<>();
+        /** Rangerte nøkler (se {@link #score}); fylles nedenfra og opp. */
+        long[] top = new long[0];
+    }
+
+    /** @param names normaliserte, unike navn; indeksen i arrayen er navnets nummer */
+    PrefixIndex(String[] names) {
+        // Alfabetisk rang brukes som siste ledd i rangeringen
+        Integer[] order = new Integer[names.length];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> names[a].compareTo(names[b]));
+        int[] alpha = new int[names.length];
+        for (int r = 0; r < order.length; r++) alpha[order[r]] = r;
+
+        Node root = new Node();
+        for (int n = 0; n < names.length; n++) {
+            String name = names[n];
+            for (int p = 0; p < name.length(); p++) {
+                if (p > 0 && Character.isLetterOrDigit(name.charAt(p - 1))) continue;
+                if (!Character.isLetterOrDigit(name.charAt(p))) continue;
+
+                long s = score(p > 0, name.length(), alpha[n], n);
+                Node node = root;
+                for (int i = p; i < name.length(); i++) {
+                    node = node.children.computeIfAbsent(name.charAt(i), c -> new Node());
+                }
+                node.top = merge(node.top, new long[] { s });
+            }
+        }
+        fillTop(root);
+
+        // Frys bredde-først til arrays
+        List<Node> nodes = new ArrayList<>();
+        Map<Node, Integer> id = new java.util.IdentityHashMap<>();
+        ArrayDeque<Node> queue = new ArrayDeque<>();
+        queue.add(root);
+        id.put(root, 0);
+        nodes.add(root);
+        while (!queue.isEmpty()) {
+            for (Node c : queue.poll().children.values()) {
+                id.put(c, nodes.size());
+                nodes.add(c);
+                queue.add(c);
+            }
+        }
+
+        childStart = new int[nodes.size() + 1];
+        topStart = new int[nodes.size() + 1];
+        for (int n = 0; n < nodes.size(); n++) {
+            childStart[n + 1] = childStart[n] + nodes.get(n).children.size();
+            topStart[n + 1] = topStart[n] + nodes.get(n).top.length;
+        }
+        childChar = new char[childStart[nodes.size()]];
+        childNode = new int[childChar.length];
+        topEntry = new int[topStart[nodes.size()]];
+        for (int n = 0; n < nodes.size(); n++) {
+            int k = childStart[n];
+            for (Map.Entry<Character, Node> e : nodes.get(n).children.entrySet()) {
+                childChar[k] = e.getKey();
+                childNode[k++] = id.get(e.getValue());
+            }
+            long[] top = nodes.get(n).top;
+            for (int i = 0; i < top.length; i++) topEntry[topStart[n] + i] = entry(top[i]);
+        }
+    }
+
+    /*
+     * Rangeringsnøkkel, lavest er best:
+     * bit 62 midt-i-treff, bit 40-61 navnelengde, bit 20-39 alfabetisk rang, bit 0-19 navnenummer.
+     */
+    private static long score(boolean midWord, int length, int alphaRank, int name) {
+        return ((midWord ? 1L : 0L) << 62) | ((long) Math.min(length, (1 << 22) - 1) << 40)
+                | ((long) alphaRank << 20) | name;
+    }
+
+    private static int entry(long score) {
+        int name = (int) (score & 0xFFFFF);
+        return (name << 1) | (int) (score >>> 62);
+    }
+
+    private static void fillTop(Node node) {
+        for (Node c : node.children.values()) {
+            fillTop(c);
+            node.top = merge(node.top, c.top);
+        }
+    }
+
+    /** Slår sammen to sorterte lister, ett innslag per navn, maks MAX_K. */
+    private static long[] merge(long[] a, long[] b) {
+        long[] all = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, all, a.length, b.length);
+        Arrays.sort(all);
+        long[] out = new long[Math.min(all.length, MAX_K)];
+        int n = 0;
+        for (long s : all) {
+            if (n == out.length) break;
+            boolean dup = false;
+            for (int i = 0; i < n; i++) {
+                if ((out[i] & 0xFFFFF) == (s & 0xFFFFF)) { dup = true; break; }
+            }
+            if (!dup) out[n++] = s;
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    /**
+     * De k beste navnene som har et ord som begynner med {@code prefix}
+     * (allerede normalisert), som (navn &lt;&lt; 1) | 1 hvis treffet er midt i navnet.
+     */
+    int[] top(String prefix, int k) {
+        int node = 0;
+        for (int i = 0; i < prefix.length() && node >= 0; i++) {
+            node = child(node, prefix.charAt(i));
+        }
+        if (node < 0) return new int[0];
+        int from = topStart[node];
+        return Arrays.copyOfRange(topEntry, from, from + Math.min(k, topStart[node + 1] - from));
+    }
+
+    private int child(int node, char c) {
+        int lo = childStart[node], hi = childStart[node + 1] - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (childChar[mid] < c) lo = mid + 1;
+            else if (childChar[mid] > c) hi = mid - 1;
+            else return childNode[mid];
+        }
+        return -1;
+    }
+}
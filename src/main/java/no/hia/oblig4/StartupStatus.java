@@ -0,0 +1,111 @@
+package no.hia.oblig4;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Holder styr på hvilke datasett som er lastet ved oppstart.
+ *
+ * Liveness (prosessen svarer) og readiness (alle datasett er lastet) er
+ * to forskjellige ting: serveren tar imot trafikk med en gang, men
+ * orkestratoren skal ikke rute til noden før {@link #isReady()} er sann.
+ */
+final class StartupStatus {
+
+    enum State { LOADING, READY, FAILED }
+
+    private static final class Dataset {
+        volatile State state = State.LOADING;
+        volatile long loadMillis = -1;
+        volatile long readyAtMillis = -1;
+        volatile String error;
+    }
+
+    private final long startedAt = System.nanoTime();
+    /** Alle datasett registreres før lasting starter; selve mappet endres ikke etterpå. */
+    private final Map<String, Dataset> datasets = new LinkedHashMap<>();
+
+    StartupStatus(String... names) {
+        for (String n : names) datasets.put(n, new Dataset());
+    }
+
+    /**
+     * Kjører en laster for datasettet og registrerer tid og utfall.
+     * Kastede unntak pakkes inn, slik at avhengige steg i en
+     * CompletableFuture-kjede også feiler.
+     */
+    <T> T run(String name, Callable<T> loader) {
+        Dataset d = datasets.get(name);
+        if (d == null) throw new IllegalArgumentException("Ukjent datasett: " + name);
+
+        long t0 = System.nanoTime();
+        try {
+            T value = loader.call();
+            d.loadMillis = (System.nanoTime() - t0) / 1_000_000;
+            d.readyAtMillis = (System.nanoTime() - startedAt) / 1_000_000;
+            d.state = State.READY;
+            System.out.println("✅ " + name + " lastet på " + d.loadMillis + " ms");
+            return value;
+        } catch (Exception e) {
+            d.loadMillis = (System.nanoTime() - t0) / 1_000_000;
+            d.error = String.valueOf(e.getMessage());
+            d.state = State.FAILED;
+            System.err.println("❌ Klarte ikke å laste " + name);
+            e.printStackTrace();
+            throw new CompletionException(e);
+        }
+    }
+
+    /** Markerer et datasett som feilet fordi noe det avhenger av feilet. */
+    void failed(String name, Throwable cause) {
+        Dataset d = datasets.get(name);
+        if (d == null || d.state != State.LOADING) return;
+        Throwable root = cause instanceof CompletionException && cause.getCause() != null ? cause.getCause() : cause;
+        d.error = "avhengighet feilet: " + root.getMessage();
+        d.state = State.FAILED;
+    }
+
+    boolean isReady() {
+        for (Dataset d : datasets.values()) {
+            if (d.state != State.READY) return false;
+        }
+        return true;
+    }
+
+    boolean isLoading() {
+        for (Dataset d : datasets.values()) {
+            if (d.state == State.LOADING) return true;
+        }
+        return false;
+    }
+
+    String toJson() {
+        String status = isReady() ? "ready" : isLoading() ? "loading" : "failed";
+        StringBuilder json = new StringBuilder(256);
+        json.append('{')
+                .append("\"live\":true,")
+                .append("\"ready\":").append(isReady()).append(',')
+                .append("\"status\":\"").append(status).append("\",")
+                .append("\"uptimeMs\":").append((System.nanoTime() - startedAt) / 1_000_000).append(',')
+                .append("\"datasets\":{");
+        boolean first = true;
+        for (Map.Entry<String, Dataset> e : datasets.entrySet()) {
+            if (!first) json.append(',');
+            first = false;
+            Dataset d = e.getValue();
+            json.append('"').append(e.getKey()).append("\":{")
+                    .append("\"state\":\"").append(d.state.name().toLowerCase(Locale.ROOT)).append("\",")
+                    .append("\"loadMs\":").append(d.loadMillis).append(',')
+                    .append("\"readyAtMs\":").append(d.readyAtMillis);
+            if (d.error != null) {
+                json.append(",\"error\":\"").append(d.error.replace("\\", "\\\\").replace("\"", "\\\"").replace('\n', ' ')).append('"');
+            }
+            json.append('}');
+        }
+        json.append("}}");
+        return json.toString();
+    }
+}
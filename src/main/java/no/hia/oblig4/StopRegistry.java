@@ -0,0 +1,198 @@
+package no.hia.oblig4;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Felles, uforanderlig register over alle stopp (quays).
+ *
+ * Stopp-fila parses én gang, og id, navn og koordinater holdes i parallelle
+ * arrays indeksert på et fast stoppnummer. {@link StopSearch},
+ * {@link NearestStopFinder} og {@link DirectTripFinder} bruker alle samme
+ * nummerering, slik at de kan slå sammen data via int i stedet for String.
+ * Like navn deler samme String-instans.
+ *
+ * Quays med samme navn regnes som ett stoppested (place), uten forskjell
+ * på store og små bokstaver, med samme nøkkel som {@link StopSearch}
+ * ({@link #nameKey}). Stoppestedene nummereres i den rekkefølgen navnet
+ * først dukker opp.
+ */
+public final class StopRegistry {
+
+    /** Tomt register, for rutetabeller som lastes uten stopp-fil. */
+    static final StopRegistry EMPTY = new StopRegistry(new String[0], new String[0], new double[0], new double[0]);
+
+    private final String[] ids;
+    private final String[] names;
+    /** Stopp uten koordinater har NaN. */
+    private final double[] lat;
+    private final double[] lon;
+    private final Map<String, Integer> index;
+
+    /** Stoppested per stopp; medlemmene til sted p ligger i placeQuays[placeStart[p] .. placeStart[p + 1]). */
+    private final int[] placeOf;
+    private final int[] placeStart;
+    private final int[] placeQuays;
+
+    StopRegistry(String[] ids, String[] names, double[] lat, double[] lon) {
+        this.ids = ids;
+        this.names = names;
+        this.lat = lat;
+        this.lon = lon;
+        this.index = new HashMap<>(ids.length * 2);
+        for (int i = 0; i < ids.length; i++) index.put(ids[i], i);
+
+        Map<String, Integer> places = new HashMap<>();
+        placeOf = new int[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            placeOf[i] = places.computeIfAbsent(nameKey(names[i]), k -> places.size());
+        }
+        placeStart = new int[places.size() + 1];
+        for (int p : placeOf) placeStart[p + 1]++;
+        for (int p = 0; p < places.size(); p++) placeStart[p + 1] += placeStart[p];
+        placeQuays = new int[ids.length];
+        int[] fill = Arrays.copyOf(placeStart, places.size());
+        for (int i = 0; i < ids.length; i++) placeQuays[fill[placeOf[i]]++] = i;
+    }
+
+    /**
+     * Leser stopp-fila. Forutsetter feltene "id", "navn" eller "name",
+     * og eventuelt "lat"/"lon".
+     */
+    public static StopRegistry load(String quaysJsonPath) throws IOException {
+        List<String> ids = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        List<double[]> coords = new ArrayList<>();
+        Map<String, String> sharedNames = new HashMap<>();
+
+        try (JsonPullReader r = JsonPullReader.open(Path.of(quaysJsonPath))) {
+            r.beginArray();
+            while (r.hasNext()) {
+                String id = null, navn = null, name = null;
+                String latStr = null, lonStr = null;
+
+                r.beginObject();
+                while (r.hasNext()) {
+                    switch (r.nextName()) {
+                        case "id"   -> id   = r.nextString();     // NSR:Quay:xxxx
+                        case "navn" -> navn = r.nextString();
+                        case "name" -> name = r.nextString();
+                        case "lat"  -> latStr = r.nextString();
+                        case "lon"  -> lonStr = r.nextString();
+                        default     -> r.skipValue();
+                    }
+                }
+                r.endObject();
+
+                if (navn == null) navn = name;
+                if (id == null || navn == null) continue;
+
+                ids.add(id);
+                names.add(sharedNames.computeIfAbsent(navn, k -> k));
+                coords.add(new double[] {
+                        latStr == null ? Double.NaN : Double.parseDouble(latStr),
+                        lonStr == null ? Double.NaN : Double.parseDouble(lonStr)
+                });
+            }
+            r.endArray();
+        }
+
+        double[] lat = new double[coords.size()];
+        double[] lon = new double[coords.size()];
+        for (int i = 0; i < coords.size(); i++) {
+            lat[i] = coords.get(i)[0];
+            lon[i] = coords.get(i)[1];
+        }
+        return new StopRegistry(ids.toArray(new String[0]), names.toArray(new String[0]), lat, lon);
+    }
+
+    /**
+     * Åpner stoppene fra binært snapshot hvis det er ferskt, ellers fra JSON.
+     */
+    public static StopRegistry open(String quaysJsonPath, String snapshotPath) throws IOException {
+        StopRegistry stops = TimetableSnapshot.readStops(Path.of(snapshotPath), Path.of(quaysJsonPath));
+        return stops != null ? stops : load(quaysJsonPath);
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    /** Stoppnummer for en NSR:Quay-id, eller -1 hvis ukjent. */
+    public int indexOf(String quayId) {
+        Integer i = quayId == null ? null : index.get(quayId);
+        return i == null ? -1 : i;
+    }
+
+    public String id(int i) {
+        return ids[i];
+    }
+
+    public String name(int i) {
+        return names[i];
+    }
+
+    public double lat(int i) {
+        return lat[i];
+    }
+
+    public double lon(int i) {
+        return lon[i];
+    }
+
+    public boolean hasCoordinates(int i) {
+        return !Double.isNaN(lat[i]) && !Double.isNaN(lon[i]);
+    }
+
+    /** Normalisert navn: nøkkelen for stoppesteder og for navnesøk i {@link StopSearch}. */
+    static String nameKey(String name) {
+        return name == null ? null : name.toLowerCase(Locale.ROOT);
+    }
+
+    /** Quay-id fra brukeren: bare sifre blir "NSR:Quay:&lt;sifre&gt;", ellers trimmet som den er. */
+    static String normalizeQuayId(String input) {
+        if (input == null) return null;
+        String s = input.trim();
+        if (s.matches("^\\d+$")) return "NSR:Quay:" + s;
+        return s;
+    }
+
+    public int placeCount() {
+        return placeStart.length - 1;
+    }
+
+    /** Stoppestedet stopp i hører til. */
+    public int placeOf(int i) {
+        return placeOf[i];
+    }
+
+    /** Stoppene på sted p ligger i [placeStart(p), placeEnd(p)) via {@link #placeQuay(int)}. */
+    public int placeStart(int p) {
+        return placeStart[p];
+    }
+
+    public int placeEnd(int p) {
+        return placeStart[p + 1];
+    }
+
+    public int placeQuay(int k) {
+        return placeQuays[k];
+    }
+
+    /** Alle stopp på sted p. */
+    public int[] placeQuays(int p) {
+        return Arrays.copyOfRange(placeQuays, placeStart[p], placeStart[p + 1]);
+    }
+
+    /* Rå arrays for snapshot-skriving; skal ikke endres. */
+    String[] ids()    { return ids; }
+    String[] names()  { return names; }
+    double[] lats()   { return lat; }
+    double[] lons()   { return lon; }
+}
@@ -1,175 +1,241 @@
 package no.hia.oblig4;
 
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.util.*;
 
 public class StopSearch {
 
-    private final Map<String, List<String>> nameToIds = new HashMap<>();
-    private final Map<String, String> idToName = new HashMap<>();
+    /** Felles stoppregister; søket er bare en navne-indeks over det. */
+    private final StopRegistry stops;
+    /** Normalisert navn -> stoppnumre i registeret. */
+    private final Map<String, int[]> nameToIds = new HashMap<>();
+    /** Unike normaliserte navn, sortert; indeksen er navnets nummer i {@link #prefixes}. */
+    private final String[] names;
+    /** Stoppnumre per navn i {@link #names}. */
+    private final int[][] nameIds;
+    private final PrefixIndex prefixes;
+    private final TrigramIndex trigrams;
+    /** Fuzzy-ordliste: alle navn, deretter ord fra navnene som ikke er navn selv. */
+    private final String[] terms;
+    private final int nameTerms;
+    private final BkTree fuzzy;
+
+    /** Ett forslag: et navn med alle quayene som har det, og hvordan det traff. */
+    public static final class Suggestion {
+        public final String name;
+        public final List<String> ids;
+        /** "exact", "prefix" (starten av navnet) eller "word" (starten av et senere ord). */
+        public final String match;
+
+        Suggestion(String name, List<String> ids, String match) {
+            this.name = name;
+            this.ids = ids;
+            this.match = match;
+        }
+    }
 
     public StopSearch(String quaysJsonPath) throws Exception {
-        String json = Files.readString(Path.of(quaysJsonPath), StandardCharsets.UTF_8);
-
-        @SuppressWarnings("unchecked")
-        List<Map<String, Object>> quays =
-                (List<Map<String, Object>>) MiniJson.parse(json);
-
-        for (Map<String, Object> q : quays) {
-            String id   = (String) q.get("id");              // NSR:Quay:xxxx
-            String navn = (String) q.getOrDefault("navn", q.get("name"));
-
-            if (id == null || navn == null) continue;
+        this(StopRegistry.load(quaysJsonPath));
+    }
 
-            idToName.put(id, navn);
+    public StopSearch(StopRegistry stops) {
+        this.stops = stops;
+
+        for (int i = 0; i < stops.size(); i++) {
+            String normalized = StopRegistry.nameKey(stops.name(i));
+            int[] prev = nameToIds.get(normalized);
+            if (prev == null) {
+                nameToIds.put(normalized, new int[] { i });
+            } else {
+                int[] grown = Arrays.copyOf(prev, prev.length + 1);
+                grown[prev.length] = i;
+                nameToIds.put(normalized, grown);
+            }
+        }
 
-            String normalized = navn.toLowerCase(Locale.ROOT);
-            nameToIds.computeIfAbsent(normalized, k -> new ArrayList<>()).add(id);
+        names = nameToIds.keySet().toArray(new String[0]);
+        Arrays.sort(names);
+        nameIds = new int[names.length][];
+        for (int n = 0; n < names.length; n++) nameIds[n] = nameToIds.get(names[n]);
+        prefixes = new PrefixIndex(names);
+        trigrams = new TrigramIndex(names);
+
+        // Enkeltord gjør at en skrivefeil i "Fredrikstad" treffer selv om
+        // ingen holdeplass heter bare det; lookup finner dem som delstreng
+        Set<String> words = new TreeSet<>();
+        for (String n : names) {
+            for (String w : n.split("[^\\p{L}\\p{N}]+")) {
+                if (w.length() >= 3 && !nameToIds.containsKey(w)) words.add(w);
+            }
         }
+        nameTerms = names.length;
+        terms = Arrays.copyOf(names, names.length + words.size());
+        int t = names.length;
+        for (String w : words) terms[t++] = w;
+        fuzzy = new BkTree(terms);
+    }
+
+    /**
+     * Åpner stoppene fra binært snapshot hvis det er ferskt, ellers fra JSON.
+     */
+    public static StopSearch open(String quaysJsonPath, String snapshotPath) throws Exception {
+        return new StopSearch(StopRegistry.open(quaysJsonPath, snapshotPath));
     }
 
     /**
      * Søk på navn (fullt eller delvis, case-insensitivt).
+     *
+     * Et eksakt navn gir bare sine quays. Ellers gis alle navn som inneholder
+     * teksten (funnet via {@link TrigramIndex}), rangert som i
+     * {@link #suggest}: starten av navnet, så starten av et ord, så resten;
+     * innen hver gruppe korteste navn først, deretter alfabetisk.
+     * Rekkefølgen er dermed den samme fra kjøring til kjøring.
      */
     public List<String> lookup(String name) {
         String key = name.toLowerCase(Locale.ROOT);
         List<String> result = new ArrayList<>();
 
         // Først eksakt match
-        if (nameToIds.containsKey(key)) {
-            result.addAll(nameToIds.get(key));
+        int[] exact = nameToIds.get(key);
+        if (exact != null) {
+            for (int i : exact) result.add(stops.id(i));
             return result;
         }
+        if (key.isEmpty()) return result;
+
+        // Ellers delvis match: kandidater fra trigram-indeksen, verifisert og rangert
+        List<long[]> hits = new ArrayList<>();
+        for (int n : trigrams.candidates(key)) {
+            int at = names[n].indexOf(key);
+            if (at < 0) continue;
+            int rank = at == 0 ? 0 : (wordStartMatch(names[n], key, at) ? 1 : 2);
+            hits.add(new long[] { rank, names[n].length(), n });
+        }
+        hits.sort((a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0])
+                : a[1] != b[1] ? Long.compare(a[1], b[1]) : Long.compare(a[2], b[2]));
+        for (long[] h : hits) {
+            for (int i : nameIds[(int) h[2]]) result.add(stops.id(i));
+        }
+        return result;
+    }
 
-        // Ellers delvis match
-        for (String n : nameToIds.keySet()) {
-            if (n.contains(key)) {
-                result.addAll(nameToIds.get(n));
+    /** Om {@code key} finnes i {@code name} ved starten av et ord, fra og med første forekomst {@code at}. */
+    private static boolean wordStartMatch(String name, String key, int at) {
+        for (; at >= 0; at = name.indexOf(key, at + 1)) {
+            if (at == 0 || !Character.isLetterOrDigit(name.charAt(at - 1))) return true;
+        }
+        return false;
+    }
+
+    /**
+     * "Mente du": nærmeste navn eller ord fra et navn innen en skrivefeil-
+     * toleranse som vokser med lengden (1 for opptil 4 tegn, 2 for opptil 8,
+     * ellers 3), normalisert, eller null. Ved lik avstand vinner et helt navn
+     * over et enkeltord, så korteste, så alfabetisk. Resultatet kan sendes
+     * rett til {@link #lookup}.
+     */
+    public String didYouMean(String input) {
+        if (input == null) return null;
+        String key = input.trim().toLowerCase(Locale.ROOT);
+        if (key.isEmpty()) return null;
+
+        int max = key.length() <= 4 ? 1 : key.length() <= 8 ? 2 : 3;
+        String best = null;
+        int bestDist = Integer.MAX_VALUE;
+        boolean bestIsName = false;
+        for (long hit : fuzzy.search(key, max)) {
+            int d = (int) (hit >>> 32);
+            int term = (int) hit;
+            boolean isName = term < nameTerms;
+            String candidate = terms[term];
+            if (best == null || d < bestDist
+                    || (d == bestDist && isName && !bestIsName)
+                    || (d == bestDist && isName == bestIsName
+                        && (candidate.length() < best.length()
+                            || (candidate.length() == best.length() && candidate.compareTo(best) < 0)))) {
+                best = candidate;
+                bestDist = d;
+                bestIsName = isName;
             }
         }
-        return result;
+        return best;
+    }
+
+    /**
+     * Autocomplete: opptil {@code limit} (maks {@link PrefixIndex#MAX_K}) navn
+     * der navnet eller et av ordene begynner med {@code prefix}, best først.
+     * Eksakt navn kommer først, så navn som begynner med teksten, så navn der
+     * et senere ord gjør det; korteste navn først innen hver gruppe.
+     * Kostnaden er O(lengde på prefikset + limit), uavhengig av antall stopp.
+     */
+    public List<Suggestion> suggest(String prefix, int limit) {
+        String key = prefix.trim().toLowerCase(Locale.ROOT);
+        List<Suggestion> out = new ArrayList<>();
+        if (key.isEmpty() || limit <= 0) return out;
+
+        for (int entry : prefixes.top(key, Math.min(limit, PrefixIndex.MAX_K))) {
+            int n = entry >>> 1;
+            int[] idx = nameIds[n];
+            List<String> ids = new ArrayList<>(idx.length);
+            for (int i : idx) ids.add(stops.id(i));
+
+            String match = (entry & 1) != 0 ? "word" : names[n].length() == key.length() ? "exact" : "prefix";
+            out.add(new Suggestion(stops.name(idx[0]), ids, match));
+        }
+        return out;
     }
 
     /**
      * Hent det menneskelige navnet gitt NSR:Quay-id.
      */
     public String getStopName(String quayId) {
-        return idToName.getOrDefault(quayId, "(ukjent navn)");
+        int i = stops.indexOf(quayId);
+        return i < 0 ? "(ukjent navn)" : stops.name(i);
     }
 
     /**
      * Ny: eksponer alle stopp som et read-only Map.
      * Brukes av webApp til å bygge egendefinerte søk / forslag.
+     * Mappet er en visning over registeret, ikke en kopi.
      */
     public Map<String, String> getAllStops() {
-        return Collections.unmodifiableMap(idToName);
-    }
-
-
-    /* ------------------------- Minimal JSON Parser ------------------------- */
-
-    static final class MiniJson {
-        private final String s; private int i;
-        MiniJson(String s) { this.s = s; }
-
-        static Object parse(String json) {
-            return new MiniJson(json).val();
-        }
-
-        private Object val() {
-            ws();
-            if (i >= s.length()) throw err("slutt");
-            char c = s.charAt(i);
-
-            if (c == '{') return obj();
-            if (c == '[') return arr();
-            if (c == '"' || c == '\'') return str();
-            if (c == '-' || dig(c)) return num();
-
-            if (s.startsWith("true", i))  { i += 4; return true; }
-            if (s.startsWith("false", i)) { i += 5; return false; }
-            if (s.startsWith("null", i))  { i += 4; return null; }
-
-            throw err("ukjent verdi");
-        }
-
-        private Map<String,Object> obj() {
-            Map<String,Object> m = new LinkedHashMap<>();
-            expect('{'); ws();
-            if (peek('}')) { i++; return m; }
-            while (true) {
-                ws();
-                String key = str();
-                ws(); expect(':');
-                Object val = val();
-                m.put(key, val);
-                ws();
-                if (peek('}')) { i++; break; }
-                expect(',');
-            }
-            return m;
-        }
-
-        private List<Object> arr() {
-            List<Object> a = new ArrayList<>();
-            expect('['); ws();
-            if (peek(']')) { i++; return a; }
-            while (true) {
-                a.add(val());
-                ws();
-                if (peek(']')) { i++; return a; }
-                expect(',');
-            }
-        }
+        return new AbstractMap<>() {
+            @Override
+            public Set<Entry<String, String>> entrySet() {
+                return new AbstractSet<>() {
+                    @Override
+                    public Iterator<Entry<String, String>> iterator() {
+                        return new Iterator<>() {
+                            private int i;
+                            public boolean hasNext() { return i < stops.size(); }
+                            public Entry<String, String> next() {
+                                if (!hasNext()) throw new NoSuchElementException();
+                                int k = i++;
+                                return Map.entry(stops.id(k), stops.name(k));
+                            }
+                        };
+                    }
 
-        private String str() {
-            ws();
-            char q = s.charAt(i++);
-            StringBuilder sb = new StringBuilder();
-            while (i < s.length()) {
-                char c = s.charAt(i++);
-                if (c == q) break;
-                if (c == '\\') {
-                    char e = s.charAt(i++);
-                    switch (e) {
-                        case 'n': sb.append('\n'); break;
-                        case 't': sb.append('\t'); break;
-                        case 'r': sb.append('\r'); break;
-                        case 'b': sb.append('\b'); break;
-                        case 'f': sb.append('\f'); break;
-                        case '"': sb.append('"'); break;
-                        case '\'': sb.append('\''); break;
-                        case '\\': sb.append('\\'); break;
-                        default: sb.append(e);
+                    @Override
+                    public int size() {
+                        return stops.size();
                     }
-                } else sb.append(c);
+                };
             }
-            return sb.toString();
-        }
 
-        private Number num() {
-            int st = i;
-            if (s.charAt(i) == '-') i++;
-            while (i < s.length() && dig(s.charAt(i))) i++;
-
-            boolean frac = false;
-            if (i < s.length() && s.charAt(i) == '.') {
-                frac = true; i++;
-                while (i < s.length() && dig(s.charAt(i))) i++;
+            @Override
+            public boolean containsKey(Object key) {
+                return key instanceof String id && stops.indexOf(id) >= 0;
             }
 
-            String n = s.substring(st, i);
-            return frac ? Double.parseDouble(n) : Long.parseLong(n);
-        }
+            @Override
+            public String get(Object key) {
+                int i = key instanceof String id ? stops.indexOf(id) : -1;
+                return i < 0 ? null : stops.name(i);
+            }
+        };
+    }
 
-        private void ws() { while (i < s.length() && " \n\r\t".indexOf(s.charAt(i)) >= 0) i++; }
-        private void expect(char c) { ws(); if (s.charAt(i) != c) throw err("forventet " + c); i++; }
-        private boolean peek(char c) { ws(); return i < s.length() && s.charAt(i) == c; }
-        private static boolean dig(char c) { return c >= '0' && c <= '9'; }
-        private static RuntimeException err(String m) { return new RuntimeException("JSON-feil: " + m); }
+    public StopRegistry getRegistry() {
+        return stops;
     }
 }
-
-
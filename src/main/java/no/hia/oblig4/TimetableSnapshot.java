@@ -0,0 +1,266 @@
+package no.hia.oblig4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Binært, versjonert snapshot av rutetabellen og stoppene.
+ *
+ * Kompileres fra JSON-filene med {@link #main(String[])} og åpnes senere
+ * memory-mappet. Lesingen er ikke null-parse: hver array kopieres over på
+ * heapen (én bulk-kopi per int- og double-array, én String per streng), men
+ * det sparer tokenisering av JSON og byggingen av mellomliggende objekter.
+ * Headeren lagrer størrelse og endringstid for kildefilene; hvis de ikke
+ * stemmer lenger regnes snapshotet som utdatert, og kallerne faller tilbake
+ * til JSON. Det samme gjør de hvis fila er avkortet eller skadet.
+ *
+ * Format (big-endian):
+ * <pre>
+ *   int  MAGIC, int VERSION
+ *   long journeys.size, long journeys.mtime, long quays.size, long quays.mtime
+ *   long tripsOffset, long stopsOffset
+ *   [trips]  strenger: quayIds, journeyIds, journeyLines, directions
+ *            int-arrays: journeyStart, eventQuay, eventArrival, eventDeparture,
+ *                        eventSequence, eventDirection
+ *   [stops]  strenger: ids, names   double-arrays: lat, lon
+ * </pre>
+ */
+public final class TimetableSnapshot {
+
+    public static final String DEFAULT_PATH = "src/data/rutetabell.snapshot";
+
+    private static final int MAGIC   = 0x5254534E; // "RTSN"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 4 + 4 + 4 * 8 + 2 * 8;
+
+    private TimetableSnapshot() {
+    }
+
+    /* ------------------------------ Kompilering ------------------------------ */
+
+    /**
+     * Kompilerer snapshot: {@code TimetableSnapshot [journeys.json] [stops.json] [ut.snapshot]}.
+     */
+    public static void main(String[] args) throws Exception {
+        String journeys = args.length > 0 ? args[0] : "src/main/resources/Rutetabell/Rutetider630.json";
+        String quays    = args.length > 1 ? args[1] : "src/main/resources/Rutetabell/stops_630_only.json";
+        String out      = args.length > 2 ? args[2] : DEFAULT_PATH;
+
+        long t0 = System.nanoTime();
+        write(Path.of(journeys), Path.of(quays), Path.of(out));
+        long ms = (System.nanoTime() - t0) / 1_000_000;
+        System.out.println("💾 Snapshot skrevet til " + out + " (" + Files.size(Path.of(out)) + " bytes, " + ms + " ms)");
+    }
+
+    public static void write(Path journeysJson, Path quaysJson, Path out) throws Exception {
+        DirectTripFinder.Columns c = DirectTripFinder.parseJson(journeysJson);
+        StopRegistry s = StopRegistry.load(quaysJson.toString());
+
+        byte[] trips = section(d -> {
+            writeStrings(d, c.quayIds());
+            writeStrings(d, c.journeyIds());
+            writeStrings(d, c.journeyLines());
+            writeStrings(d, c.directions());
+            writeInts(d, c.journeyStart());
+            writeInts(d, c.eventQuay());
+            writeInts(d, c.eventArrival());
+            writeInts(d, c.eventDeparture());
+            writeInts(d, c.eventSequence());
+            writeInts(d, c.eventDirection());
+        });
+        byte[] stops = section(d -> {
+            writeStrings(d, s.ids());
+            writeStrings(d, s.names());
+            writeDoubles(d, s.lats());
+            writeDoubles(d, s.lons());
+        });
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_BYTES + trips.length + stops.length);
+        try (DataOutputStream d = new DataOutputStream(bytes)) {
+            d.writeInt(MAGIC);
+            d.writeInt(VERSION);
+            d.writeLong(Files.size(journeysJson));
+            d.writeLong(Files.getLastModifiedTime(journeysJson).toMillis());
+            d.writeLong(Files.size(quaysJson));
+            d.writeLong(Files.getLastModifiedTime(quaysJson).toMillis());
+            d.writeLong(HEADER_BYTES);
+            d.writeLong(HEADER_BYTES + trips.length);
+            d.write(trips);
+            d.write(stops);
+        }
+
+        // Skriv til midlertidig fil og flytt på plass, så lesere aldri ser en halv fil
+        Path parent = out.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path tmp = Files.createTempFile(parent, "rutetabell", ".tmp");
+        Files.write(tmp, bytes.toByteArray());
+        Files.move(tmp, out, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private interface SectionWriter {
+        void write(DataOutputStream d) throws IOException;
+    }
+
+    private static byte[] section(SectionWriter w) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream d = new DataOutputStream(bytes)) {
+            w.write(d);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeStrings(DataOutputStream d, String[] a) throws IOException {
+        d.writeInt(a.length);
+        for (String s : a) {
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            d.writeInt(b.length);
+            d.write(b);
+        }
+    }
+
+    private static void writeInts(DataOutputStream d, int[] a) throws IOException {
+        d.writeInt(a.length);
+        for (int v : a) d.writeInt(v);
+    }
+
+    private static void writeDoubles(DataOutputStream d, double[] a) throws IOException {
+        d.writeInt(a.length);
+        for (double v : a) d.writeDouble(v);
+    }
+
+    /* -------------------------------- Lesing -------------------------------- */
+
+    /**
+     * Leser rutetabell-delen, eller null hvis snapshotet mangler, har feil
+     * versjon, er eldre enn JSON-fila eller er skadet.
+     */
+    static DirectTripFinder.Columns readTrips(Path snapshot, Path journeysJson) {
+        ByteBuffer b = map(snapshot, journeysJson, 8, 16);
+        if (b == null) return null;
+
+        try {
+            b.position(sectionOffset(b, 40));
+            DirectTripFinder.Columns c = new DirectTripFinder.Columns(
+                    readStrings(b), readStrings(b), readStrings(b), readStrings(b),
+                    readInts(b), readInts(b), readInts(b), readInts(b), readInts(b), readInts(b));
+
+            int events = c.eventQuay().length;
+            int[] start = c.journeyStart();
+            if (start.length != c.journeyIds().length + 1 || start[0] != 0 || start[start.length - 1] != events
+                    || c.eventArrival().length != events || c.eventDeparture().length != events
+                    || c.eventSequence().length != events || c.eventDirection().length != events) {
+                throw new IllegalArgumentException("kolonnene har ulik lengde");
+            }
+            return c;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            System.out.println("⚠️  Snapshot " + snapshot + " er skadet (" + e + "), bruker JSON");
+            return null;
+        }
+    }
+
+    /** Leser stopp-delen, eller null hvis snapshotet ikke kan brukes. */
+    static StopRegistry readStops(Path snapshot, Path quaysJson) {
+        ByteBuffer b = map(snapshot, quaysJson, 24, 32);
+        if (b == null) return null;
+
+        try {
+            b.position(sectionOffset(b, 48));
+            String[] ids = readStrings(b);
+            String[] names = readStrings(b);
+            double[] lat = readDoubles(b);
+            double[] lon = readDoubles(b);
+            if (names.length != ids.length || lat.length != ids.length || lon.length != ids.length) {
+                throw new IllegalArgumentException("kolonnene har ulik lengde");
+            }
+            return new StopRegistry(ids, names, lat, lon);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            System.out.println("⚠️  Snapshot " + snapshot + " er skadet (" + e + "), bruker JSON");
+            return null;
+        }
+    }
+
+    /** Seksjonsstarten lagret på {@code at}; må ligge etter headeren og innenfor fila. */
+    private static int sectionOffset(ByteBuffer b, int at) {
+        long offset = b.getLong(at);
+        if (offset < HEADER_BYTES || offset >= b.limit()) {
+            throw new IllegalArgumentException("seksjonsstart " + offset + " utenfor fila");
+        }
+        return (int) offset;
+    }
+
+    /**
+     * Mapper fila og sjekker magic, versjon og fingeravtrykket til kildefila
+     * (størrelse på {@code sizeAt}, endringstid på {@code mtimeAt}).
+     */
+    private static ByteBuffer map(Path snapshot, Path source, int sizeAt, int mtimeAt) {
+        if (!Files.isRegularFile(snapshot)) return null;
+
+        try (FileChannel ch = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+            if (ch.size() < HEADER_BYTES) return null;
+            if (ch.size() > Integer.MAX_VALUE) {
+                System.out.println("⚠️  Snapshot " + snapshot + " er for stort til å mappes, bruker JSON");
+                return null;
+            }
+            MappedByteBuffer b = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+
+            if (b.getInt(0) != MAGIC || b.getInt(4) != VERSION) {
+                System.out.println("⚠️  Snapshot " + snapshot + " har ukjent format, bruker JSON");
+                return null;
+            }
+            if (b.getLong(sizeAt) != Files.size(source)
+                    || b.getLong(mtimeAt) != Files.getLastModifiedTime(source).toMillis()) {
+                System.out.println("⚠️  Snapshot " + snapshot + " er utdatert i forhold til " + source + ", bruker JSON");
+                return null;
+            }
+            return b;
+        } catch (IOException e) {
+            System.out.println("⚠️  Klarte ikke å åpne snapshot " + snapshot + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Leser en lengde og sjekker at så mange elementer på {@code bytes} byte
+     * får plass i resten av fila, så en skadet lengde ikke gir en enorm
+     * allokering.
+     */
+    private static int readCount(ByteBuffer b, int bytes) {
+        int n = b.getInt();
+        if (n < 0 || (long) n * bytes > b.remaining()) throw new BufferUnderflowException();
+        return n;
+    }
+
+    private static String[] readStrings(ByteBuffer b) {
+        String[] a = new String[readCount(b, 4)];
+        for (int i = 0; i < a.length; i++) {
+            byte[] bytes = new byte[readCount(b, 1)];
+            b.get(bytes);
+            a[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return a;
+    }
+
+    private static int[] readInts(ByteBuffer b) {
+        int[] a = new int[readCount(b, 4)];
+        b.asIntBuffer().get(a);
+        b.position(b.position() + a.length * 4);
+        return a;
+    }
+
+    private static double[] readDoubles(ByteBuffer b) {
+        double[] a = new double[readCount(b, 8)];
+        b.asDoubleBuffer().get(a);
+        b.position(b.position() + a.length * 8);
+        return a;
+    }
+}
@@ -0,0 +1,74 @@
+package no.hia.oblig4;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Overvåker rutetabell-mappa og ber om reload når filene endres.
+ *
+ * Editorer og kopiering gir gjerne flere hendelser etter hverandre, så vi
+ * venter til mappa har vært rolig en liten stund før reload kjøres.
+ */
+final class TimetableWatcher implements Runnable {
+
+    private static final long QUIET_MILLIS = 500;
+
+    private final Path dir;
+    private final Runnable onChange;
+
+    private TimetableWatcher(Path dir, Runnable onChange) {
+        this.dir = dir;
+        this.onChange = onChange;
+    }
+
+    /** Starter overvåkingen i en egen daemon-tråd. */
+    static void start(Path dir, Runnable onChange) {
+        Thread t = new Thread(new TimetableWatcher(dir, onChange), "timetable-watcher");
+        t.setDaemon(true);
+        t.start();
+        System.out.println("👀 Overvåker " + dir + " for endringer i rutetabellen");
+    }
+
+    @Override
+    public void run() {
+        try (WatchService ws = FileSystems.getDefault().newWatchService()) {
+            dir.register(ws,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE);
+
+            while (true) {
+                WatchKey key = ws.take();
+                drain(key);
+
+                // Vent til det har vært stille en stund
+                WatchKey more;
+                while ((more = ws.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    drain(more);
+                }
+
+                System.out.println("📝 Endring i " + dir + ", laster rutetabellen på nytt");
+                try {
+                    onChange.run();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.err.println("❌ Klarte ikke å overvåke " + dir + ": " + e.getMessage());
+        }
+    }
+
+    private static void drain(WatchKey key) {
+        key.pollEvents();
+        key.reset();
+    }
+}
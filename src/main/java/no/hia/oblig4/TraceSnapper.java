@@ -0,0 +1,196 @@
+package no.hia.oblig4;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+
+/**
+ * Knytter et GPS-spor til quays (POST /api/mock/snap).
+ *
+ * Punktene leses strømmende i biter på {@link #CHUNK}. Hver bit snappes
+ * parallelt i en ForkJoinPool mens neste bit leses, og resultatet slås
+ * sammen i rekkefølge: påfølgende punkter ved samme quay blir ett
+ * {@link Visit}, og et punkt uten quay innen toleransen avslutter besøket.
+ * Minnebruken er dermed to biter uansett hvor langt sporet er.
+ */
+final class TraceSnapper {
+
+    static final int CHUNK = 8192;
+    static final double DEFAULT_TOLERANCE_METERS = 50;
+    static final double MAX_TOLERANCE_METERS = 500;
+
+    private static final Pattern JSON_NUMBER = Pattern.compile("-?(0|[1-9][0-9]*)(\\.[0-9]+)?([eE][+-]?[0-9]+)?");
+
+    /** Påfølgende punkter som traff samme quay. Tidsstemplene er som i forespørselen. */
+    static final class Visit {
+        final String quayId;
+        final String name;
+        final int firstIndex;
+        final String firstTime;
+        String lastTime;
+        /** Om tidsstemplene var tall i forespørselen (ellers tekst), per ende av besøket. */
+        final boolean firstNumeric;
+        boolean lastNumeric;
+        int points;
+        double minDistanceMeters;
+
+        Visit(NearestStopFinder.Nearby hit, int index, String time, boolean numericTime) {
+            this.quayId = hit.stop.id;
+            this.name = hit.stop.name;
+            this.firstIndex = index;
+            this.firstTime = time;
+            this.lastTime = time;
+            this.firstNumeric = numericTime;
+            this.lastNumeric = numericTime;
+            this.points = 1;
+            this.minDistanceMeters = hit.distanceMeters;
+        }
+    }
+
+    /** Mottar besøkene i rekkefølge; flush kalles etter hver bit. */
+    interface Sink {
+        void visit(Visit v) throws IOException;
+
+        void flush() throws IOException;
+    }
+
+    static final class Summary {
+        int points;
+        int matched;
+        int visits;
+    }
+
+    /** Én bit av sporet: leses av én tråd, snappes parallelt. */
+    private static final class Chunk {
+        final int firstIndex;
+        final double[] lat = new double[CHUNK];
+        final double[] lon = new double[CHUNK];
+        final String[] time = new String[CHUNK];
+        final boolean[] numericTime = new boolean[CHUNK];
+        final NearestStopFinder.Nearby[] hits = new NearestStopFinder.Nearby[CHUNK];
+        int size;
+        CompletableFuture<Void> done;
+
+        Chunk(int firstIndex) {
+            this.firstIndex = firstIndex;
+        }
+    }
+
+    private TraceSnapper() {
+    }
+
+    /**
+     * Leser resten av en JSON-array (etter beginArray) med
+     * {t|timestamp, lat, lon}, snapper punktene og leverer besøkene.
+     * Kaster IllegalArgumentException ved et punkt uten gyldige koordinater.
+     */
+    static Summary run(JsonPullReader r, NearestStopFinder finder, double toleranceMeters,
+                       ForkJoinPool pool, Sink sink) throws IOException {
+        Summary summary = new Summary();
+        Visit[] open = new Visit[1];
+        Chunk pending = null;
+        // Settes når lesing eller sink feiler (f.eks. klienten har koblet fra), så en bit
+        // som fortsatt snappes i poolen hopper over resten av punktene
+        AtomicBoolean cancelled = new AtomicBoolean();
+
+        try {
+            while (true) {
+                Chunk next = read(r, pending == null ? 0 : pending.firstIndex + pending.size);
+                if (next.size > 0) {
+                    Chunk c = next;
+                    c.done = CompletableFuture.runAsync(() -> IntStream.range(0, c.size).parallel()
+                            .forEach(i -> {
+                                if (!cancelled.get()) {
+                                    c.hits[i] = finder.nearestWithin(c.lat[i], c.lon[i], toleranceMeters);
+                                }
+                            }), pool);
+                }
+                if (pending != null) {
+                    pending.done.join();
+                    merge(pending, open, summary, sink);
+                    sink.flush();
+                }
+                if (next.size == 0) break;
+                pending = next;
+            }
+
+            if (open[0] != null) {
+                sink.visit(open[0]);
+                summary.visits++;
+            }
+            sink.flush();
+            return summary;
+        } catch (IOException | RuntimeException e) {
+            cancelled.set(true);
+            throw e;
+        }
+    }
+
+    private static Chunk read(JsonPullReader r, int firstIndex) throws IOException {
+        Chunk c = new Chunk(firstIndex);
+        while (c.size < CHUNK && r.hasNext()) {
+            int i = c.size;
+            double lat = Double.NaN, lon = Double.NaN;
+            String time = null;
+            boolean numeric = false;
+
+            r.beginObject();
+            while (r.hasNext()) {
+                switch (r.nextName()) {
+                    case "lat" -> lat = r.nextDouble();
+                    case "lon" -> lon = r.nextDouble();
+                    case "t", "timestamp" -> {
+                        numeric = r.peek() == JsonPullReader.Token.NUMBER;
+                        time = r.nextString();
+                        // Leseren godtar enhver rekke av tall-tegn; tall skrives ut rått igjen
+                        if (numeric && !JSON_NUMBER.matcher(time).matches()) {
+                            throw new IllegalArgumentException("punkt " + (firstIndex + i) + " har ugyldig tidsstempel");
+                        }
+                    }
+                    default -> r.skipValue();
+                }
+            }
+            r.endObject();
+
+            if (!(lat >= -90 && lat <= 90) || !(lon >= -180 && lon <= 180)) {
+                throw new IllegalArgumentException("punkt " + (firstIndex + i) + " mangler gyldig lat/lon");
+            }
+            c.lat[i] = lat;
+            c.lon[i] = lon;
+            c.time[i] = time;
+            c.numericTime[i] = numeric && time != null;
+            c.size++;
+        }
+        return c;
+    }
+
+    /** Slår sammen en ferdig bit med besøket som eventuelt fortsatte fra forrige bit. */
+    private static void merge(Chunk c, Visit[] open, Summary summary, Sink sink) throws IOException {
+        for (int i = 0; i < c.size; i++) {
+            summary.points++;
+            NearestStopFinder.Nearby hit = c.hits[i];
+            Visit v = open[0];
+
+            if (hit != null && v != null && v.quayId.equals(hit.stop.id)) {
+                v.points++;
+                v.lastTime = c.time[i];
+                v.lastNumeric = c.numericTime[i];
+                v.minDistanceMeters = Math.min(v.minDistanceMeters, hit.distanceMeters);
+                summary.matched++;
+                continue;
+            }
+            if (v != null) {
+                sink.visit(v);
+                summary.visits++;
+                open[0] = null;
+            }
+            if (hit != null) {
+                open[0] = new Visit(hit, c.firstIndex + i, c.time[i], c.numericTime[i]);
+                summary.matched++;
+            }
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package no.hia.oblig4;
+
+import java.util.Arrays;
+
+/**
+ * Invertert trigram-indeks over normaliserte stoppnavn, for delstreng-søk.
+ *
+ * Hver trigram (tre påfølgende tegn) peker på en sortert liste med navnene
+ * som inneholder den. Et navn som inneholder søketeksten må inneholde alle
+ * trigrammene i den, så kandidatene er snittet av listene, tatt fra den
+ * korteste og oppover. Snittet kan gi falske treff ("sunnund" har både
+ * "sun" og "und", men ikke "sund"), så kallet må sjekke kandidatene med
+ * {@link String#contains}.
+ *
+ * Trigrammene lagres som long (3 x 16 bit) i en sortert array med
+ * postinglistene etter hverandre i én int-array.
+ */
+final class TrigramIndex {
+
+    /** Korteste søketekst indeksen kan avgrense; kortere tekst må skannes. */
+    static final int MIN_LENGTH = 3;
+
+    private final int names;
+    /** Sorterte trigrammer; listen til gram g ligger i postings[postingStart[g] .. postingStart[g + 1]). */
+    private final long[] grams;
+    private final int[] postingStart;
+    private final int[] postings;
+
+    /** @param names normaliserte navn; indeksen i arrayen er navnets nummer */
+    TrigramIndex(String[] names) {
+        this.names = names.length;
+
+        // Alle (trigram, navn)-par, sortert og uten duplikater
+        int total = 0;
+        for (String s : names) total += Math.max(0, s.length() - 2);
+        long[] gramOf = new long[total];
+        int[] nameOf = new int[total];
+        Integer[] order = new Integer[total];
+        int k = 0;
+        for (int n = 0; n < names.length; n++) {
+            String s = names[n];
+            for (int i = 0; i + MIN_LENGTH <= s.length(); i++) {
+                gramOf[k] = gram(s, i);
+                nameOf[k] = n;
+                order[k] = k;
+                k++;
+            }
+        }
+        Arrays.sort(order, (a, b) -> gramOf[a] != gramOf[b]
+                ? Long.compare(gramOf[a], gramOf[b]) : Integer.compare(nameOf[a], nameOf[b]));
+
+        long[] g = new long[total];
+        int[] start = new int[total + 1];
+        int[] post = new int[total];
+        int gramCount = 0, postCount = 0;
+        for (int i = 0; i < total; i++) {
+            int o = order[i];
+            if (gramCount == 0 || g[gramCount - 1] != gramOf[o]) {
+                g[gramCount] = gramOf[o];
+                start[gramCount++] = postCount;
+            } else if (post[postCount - 1] == nameOf[o]) {
+                continue;
+            }
+            post[postCount++] = nameOf[o];
+        }
+        start[gramCount] = postCount;
+
+        grams = Arrays.copyOf(g, gramCount);
+        postingStart = Arrays.copyOf(start, gramCount + 1);
+        postings = Arrays.copyOf(post, postCount);
+    }
+
+    private static long gram(String s, int i) {
+        return ((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2);
+    }
+
+    /**
+     * Navn (stigende nummer) som inneholder alle trigrammene i {@code key}
+     * (allerede normalisert). Må verifiseres av kallet. Er teksten kortere
+     * enn {@link #MIN_LENGTH}, er alle navn kandidater.
+     */
+    int[] candidates(String key) {
+        if (key.length() < MIN_LENGTH) {
+            int[] all = new int[names];
+            for (int n = 0; n < names; n++) all[n] = n;
+            return all;
+        }
+
+        // Postinglistene til trigrammene, korteste først
+        int count = key.length() - MIN_LENGTH + 1;
+        long[] lists = new long[count];
+        for (int i = 0; i < count; i++) {
+            int g = Arrays.binarySearch(grams, gram(key, i));
+            if (g < 0) return new int[0];
+            lists[i] = ((long) (postingStart[g + 1] - postingStart[g]) << 32) | g;
+        }
+        Arrays.sort(lists);
+
+        int first = (int) lists[0];
+        int[] result = Arrays.copyOfRange(postings, postingStart[first], postingStart[first + 1]);
+        int size = result.length;
+        for (int i = 1; i < count && size > 0; i++) {
+            int g = (int) lists[i];
+            if (g == (int) lists[i - 1]) continue;
+            size = intersect(result, size, postingStart[g], postingStart[g + 1]);
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    /**
+     * Beholder de av result[0 .. size) som også finnes i postings[lo .. hi).
+     * Galopperer i den lengste lista, så kostnaden følger den korteste.
+     */
+    private int intersect(int[] result, int size, int lo, int hi) {
+        int kept = 0;
+        for (int i = 0; i < size && lo < hi; i++) {
+            int target = result[i];
+            int step = 1;
+            while (lo + step < hi && postings[lo + step] < target) step <<= 1;
+            int a = lo, b = Math.min(hi, lo + step + 1);
+            while (a < b) {
+                int mid = (a + b) >>> 1;
+                if (postings[mid] < target) a = mid + 1;
+                else b = mid;
+            }
+            lo = a;
+            if (lo < hi && postings[lo] == target) result[kept++] = target;
+        }
+        return kept;
+    }
+}
@@ -0,0 +1,191 @@
+package no.hia.oblig4;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Mange turspørringer i én forespørsel (POST /api/mock/trips/batch).
+ *
+ * Spørringer uten limit og cursor grupperes på fra-quay og tidsvindu, og
+ * hver gruppe besvares med ett {@link DirectTripFinder#findTripsBetween}-pass
+ * over avgangene fra quayen i stedet for én gjennomgang per til-quay.
+ * Id-er og reserveparet på samme stoppested løses som i /api/mock/trips,
+ * via {@link MockData#resolveTrips}.
+ * Sidevise spørringer (limit/cursor) stopper etter limit treff og går alene.
+ * Gruppene evalueres parallelt i en ForkJoinPool. Svarene leveres til
+ * {@link Sink} på tråden som kalte {@link #run}, i den rekkefølgen gruppene
+ * blir ferdige, så serialisering, forsinkelser og skriving skjer på én tråd.
+ */
+final class TripBatch {
+
+    static final int MAX_QUERIES = 1000;
+
+    /** Én spørring i batchen; index er posisjonen i forespørselen. */
+    static final class Query {
+        final int index;
+        final String fromId;
+        final String toId;
+        final DirectTripFinder.TripWindow window;
+
+        Query(int index, String fromId, String toId, DirectTripFinder.TripWindow window) {
+            this.index = index;
+            this.fromId = fromId;
+            this.toId = toId;
+            this.window = window;
+        }
+    }
+
+    /** Mottar svarene, alltid på tråden som kalte {@link #run}. */
+    interface Sink {
+        void result(Query q, MockData.ResolvedTrips trips) throws IOException;
+
+        void error(Query q, String error) throws IOException;
+    }
+
+    /** Et ferdig svar på vei fra en arbeidstråd til kallende tråd; error er null ved suksess. */
+    private record Done(Query query, MockData.ResolvedTrips trips, String error) {
+    }
+
+    private TripBatch() {
+    }
+
+    /**
+     * Leser en JSON-array med {fromId, toId, departAfter, arriveBefore, limit, cursor}.
+     * Tider som "HH:MM" eller "HH:MM:SS". Kaster IllegalArgumentException ved
+     * ugyldig innhold eller for mange spørringer.
+     */
+    static List<Query> parse(JsonPullReader r) throws IOException {
+        List<Query> queries = new ArrayList<>();
+        r.beginArray();
+        while (r.hasNext()) {
+            if (queries.size() >= MAX_QUERIES) {
+                throw new IllegalArgumentException("for mange spørringer (maks " + MAX_QUERIES + ")");
+            }
+            String fromId = null, toId = null, after = null, before = null, cursor = null;
+            int limit = 0;
+
+            r.beginObject();
+            while (r.hasNext()) {
+                switch (r.nextName()) {
+                    case "fromId"       -> fromId = r.nextString();
+                    case "toId"         -> toId   = r.nextString();
+                    case "departAfter"  -> after  = r.nextString();
+                    case "arriveBefore" -> before = r.nextString();
+                    case "limit"        -> limit  = r.nextInt();
+                    case "cursor"       -> cursor = r.nextString();
+                    default             -> r.skipValue();
+                }
+            }
+            r.endObject();
+
+            if (fromId == null || fromId.isBlank() || toId == null || toId.isBlank()) {
+                throw new IllegalArgumentException("spørring " + queries.size() + " mangler fromId eller toId");
+            }
+            int departAfter = after == null ? -1 : DirectTripFinder.parseTimeToSeconds(after.trim());
+            int arriveBefore = before == null ? -1 : DirectTripFinder.parseTimeToSeconds(before.trim());
+            if ((after != null && departAfter < 0) || (before != null && arriveBefore < 0)) {
+                throw new IllegalArgumentException("spørring " + queries.size() + " har ugyldig tidsvindu");
+            }
+
+            queries.add(new Query(queries.size(),
+                    StopRegistry.normalizeQuayId(fromId), StopRegistry.normalizeQuayId(toId),
+                    new DirectTripFinder.TripWindow(departAfter, arriveBefore, limit, cursor)));
+        }
+        r.endArray();
+        return queries;
+    }
+
+    /**
+     * Evaluerer alle spørringene parallelt i {@code pool} og leverer svarene
+     * til sink etter hvert som de blir ferdige. Kaster sink IOException (typisk
+     * fordi klienten har koblet fra), stoppes gruppene som ikke er startet og
+     * unntaket kastes videre.
+     */
+    static void run(MockData data, List<Query> queries, ForkJoinPool pool, Sink sink) throws IOException {
+        // Gruppér på (fra-quay, vindu); sidevise spørringer og matrise-oppslag går alene
+        Map<String, List<Query>> groups = new LinkedHashMap<>();
+        for (Query q : queries) {
+            DirectTripFinder.TripWindow w = q.window;
+            String key = w.cursor != null || w.limit > 0 || data.tripMatrix != null
+                    ? "#" + q.index
+                    : q.fromId + '|' + w.departAfter + '|' + w.arriveBefore;
+            groups.computeIfAbsent(key, k -> new ArrayList<>()).add(q);
+        }
+
+        BlockingQueue<Done> done = new LinkedBlockingQueue<>();
+        AtomicBoolean cancelled = new AtomicBoolean();
+        pool.submit(() -> groups.values().parallelStream().forEach(g -> {
+            if (cancelled.get()) return;
+            // Svarene samles og legges i køen samlet, så hver spørring får
+            // nøyaktig ett svar også når evalueringen feiler halvveis;
+            // ellers venter run for alltid
+            List<Done> answers = new ArrayList<>(g.size());
+            try {
+                evaluate(data, g, answers);
+            } catch (Throwable e) {
+                System.err.println("❌ Batch-gruppe feilet: " + e);
+                answers.clear();
+                for (Query q : g) answers.add(new Done(q, null, "internal-error"));
+            }
+            done.addAll(answers);
+        }));
+
+        try {
+            for (int n = 0; n < queries.size(); n++) {
+                Done d = done.take();
+                if (d.error == null) sink.result(d.query, d.trips);
+                else sink.error(d.query, d.error);
+            }
+        } catch (InterruptedException e) {
+            cancelled.set(true);
+            Thread.currentThread().interrupt();
+        } catch (IOException | RuntimeException e) {
+            cancelled.set(true);
+            throw e;
+        }
+    }
+
+    private static void evaluate(MockData data, List<Query> group, List<Done> done) {
+        Query first = group.get(0);
+        if (group.size() == 1) {
+            try {
+                done.add(new Done(first, data.resolveTrips(first.fromId, first.toId, first.window), null));
+            } catch (IllegalArgumentException e) {
+                done.add(new Done(first, null, "bad-cursor"));
+            }
+            return;
+        }
+
+        // Felles fra-quay: ett pass over avgangene derfra for alle til-quayene
+        DirectTripFinder finder = data.tripFinder;
+        int fromQ = finder.quayIndexOf(first.fromId);
+        IntList targets = new IntList(group.size());
+        for (Query q : group) {
+            int t = finder.quayIndexOf(q.toId);
+            if (t >= 0) targets.add(t);
+        }
+
+        Map<String, List<DirectTripFinder.Trip>> byTarget = new LinkedHashMap<>();
+        if (fromQ >= 0 && targets.size() > 0) {
+            for (DirectTripFinder.PairTrips p : finder.findTripsBetween(
+                    new int[] { fromQ }, targets.toArray(), first.window)) {
+                byTarget.put(p.toQuayId, p.trips);
+            }
+        }
+
+        // Uten treff prøves de andre quayene på stoppestedene, som for enkeltspørringer
+        for (Query q : group) {
+            List<DirectTripFinder.Trip> trips = byTarget.get(q.toId);
+            done.add(new Done(q, trips != null && !trips.isEmpty()
+                    ? new MockData.ResolvedTrips(q.fromId, q.toId, new DirectTripFinder.TripPage(trips, null))
+                    : data.resolveTrips(q.fromId, q.toId, q.window), null));
+        }
+    }
+}
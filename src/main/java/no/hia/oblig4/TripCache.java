@@ -0,0 +1,121 @@
+package no.hia.oblig4;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Begrenset LRU-cache for turspørringer.
+ *
+ * Nøkkelen inneholder versjonen til mock-datasettet, så et nytt datasett
+ * (reload) gir automatisk nye nøkler; de gamle forsvinner etter hvert som
+ * de blir minst nylig brukt. Tjenestedatoen er også med, siden de simulerte
+ * forsinkelsene i svaret endrer seg fra dag til dag (se {@link DelaySimulator}).
+ * Hver oppføring har en vekt (omtrentlig antall bytes), og cachen kaster ut
+ * de eldste til total vekt er under grensen.
+ *
+ * Valgfritt lagres også ferdig serialisert JSON, så et treff kan sendes
+ * rett ut uten å bygge svaret på nytt.
+ */
+final class TripCache {
+
+    record Key(long version, long serviceDay, String endpoint, String fromId, String toId,
+               int departAfter, int arriveBefore, int limit, String cursor) {
+    }
+
+    static final class Entry {
+        /** Quay-paret som faktisk ble brukt (kan avvike ved alternativ kombinasjon). */
+        final String fromId;
+        final String toId;
+        final DirectTripFinder.TripPage page;
+        /** UTF-8 JSON, eller null hvis cachen ikke lagrer serialiserte svar. */
+        final byte[] json;
+        final long weight;
+
+        Entry(String fromId, String toId, DirectTripFinder.TripPage page, byte[] json) {
+            this.fromId = fromId;
+            this.toId = toId;
+            this.page = page;
+            this.json = json;
+            this.weight = 128L + 160L * page.trips.size() + (json == null ? 0 : json.length);
+        }
+    }
+
+    private final long maxWeight;
+    private final boolean storeJson;
+
+    /** Tilgangsrekkefølge: eldste først. Beskyttet av this. */
+    private final LinkedHashMap<Key, Entry> map = new LinkedHashMap<>(256, 0.75f, true);
+    private long weight;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    TripCache(long maxWeight, boolean storeJson) {
+        this.maxWeight = maxWeight;
+        this.storeJson = storeJson;
+    }
+
+    static Key key(long version, long serviceDay, String endpoint, String fromId, String toId,
+                   DirectTripFinder.TripWindow w) {
+        return new Key(version, serviceDay, endpoint, fromId, toId, w.departAfter, w.arriveBefore, w.limit, w.cursor);
+    }
+
+    boolean enabled() {
+        return maxWeight > 0;
+    }
+
+    boolean storesJson() {
+        return storeJson;
+    }
+
+    Entry get(Key key) {
+        if (!enabled()) return null;
+        Entry e;
+        synchronized (this) {
+            e = map.get(key);
+        }
+        (e == null ? misses : hits).increment();
+        return e;
+    }
+
+    void put(Key key, String fromId, String toId, DirectTripFinder.TripPage page, byte[] json) {
+        if (!enabled()) return;
+        Entry e = new Entry(fromId, toId, page, storeJson ? json : null);
+        if (e.weight > maxWeight) return;
+
+        synchronized (this) {
+            Entry old = map.put(key, e);
+            weight += e.weight - (old == null ? 0 : old.weight);
+
+            Iterator<Map.Entry<Key, Entry>> it = map.entrySet().iterator();
+            while (weight > maxWeight && it.hasNext()) {
+                Entry eldest = it.next().getValue();
+                it.remove();
+                weight -= eldest.weight;
+                evictions.increment();
+            }
+        }
+    }
+
+    String statsJson() {
+        int entries;
+        long w;
+        synchronized (this) {
+            entries = map.size();
+            w = weight;
+        }
+        long h = hits.sum(), m = misses.sum();
+        return "{\"enabled\":" + enabled()
+                + ",\"storesJson\":" + storeJson
+                + ",\"entries\":" + entries
+                + ",\"weightBytes\":" + w
+                + ",\"maxWeightBytes\":" + maxWeight
+                + ",\"hits\":" + h
+                + ",\"misses\":" + m
+                + ",\"hitRate\":" + (h + m == 0 ? 0 : Math.round(1000.0 * h / (h + m)) / 1000.0)
+                + ",\"evictions\":" + evictions.sum() + "}";
+    }
+}
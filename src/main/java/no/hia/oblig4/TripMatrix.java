@@ -0,0 +1,227 @@
+package no.hia.oblig4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.IntStream;
+
+/**
+ * Ferdig utregnet O/D-matrise: for hvert par (fra-quay, til-quay) alle
+ * direkte turer, i samme rekkefølge som {@link DirectTripFinder#findTrips}.
+ *
+ * For én rute med noen hundre quays er dette billig nok til å bygges ved
+ * oppstart, og da er en turspørring bare et oppslag. Hver fra-quay bygges
+ * for seg, parallelt over alle kjerner. For større datasett vokser matrisen
+ * kvadratisk med antall quays, så den er valgfri (se {@link Mode}) og
+ * rapporterer hvor mye minne den bruker.
+ */
+final class TripMatrix {
+
+    /** OFF: aldri. ON: alltid. AUTO: bare hvis estimatet er under {@link #AUTO_LIMIT_BYTES}. */
+    enum Mode {
+        OFF, ON, AUTO;
+
+        static Mode parse(String s) {
+            if (s == null || s.isBlank()) return OFF;
+            try {
+                return valueOf(s.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                System.out.println("⚠️  Ukjent trip-matrix-modus '" + s + "', bruker OFF");
+                return OFF;
+            }
+        }
+    }
+
+    static final long AUTO_LIMIT_BYTES = 64L * 1024 * 1024;
+
+    private final DirectTripFinder finder;
+
+    /*
+     * Per fra-quay q: turene til til-quay d ligger i entries[q] fra
+     * 2 * destStart[q][d] til 2 * destStart[q][d + 1], som par
+     * (posisjon i q sin avgangsliste, avstigningshendelse).
+     * Quays uten avganger har null.
+     */
+    private final int[][] destStart;
+    private final int[][] entries;
+    private final long bytes;
+
+    private TripMatrix(DirectTripFinder finder, int[][] destStart, int[][] entries) {
+        this.finder = finder;
+        this.destStart = destStart;
+        this.entries = entries;
+
+        long b = 16L * destStart.length;
+        for (int q = 0; q < destStart.length; q++) {
+            if (destStart[q] != null) b += 16 + 4L * destStart[q].length + 16 + 4L * entries[q].length;
+        }
+        this.bytes = b;
+    }
+
+    /**
+     * Bygger matrisen etter modus, eller returnerer null hvis den er slått av
+     * eller ville blitt for stor.
+     */
+    static TripMatrix build(DirectTripFinder finder, Mode mode) {
+        if (mode == Mode.OFF) return null;
+
+        long estimate = estimateBytes(finder);
+        if (mode == Mode.AUTO && estimate > AUTO_LIMIT_BYTES) {
+            System.out.println("📐 tripMatrix: estimert " + megabytes(estimate)
+                    + " er over grensen, bruker søk ved behov");
+            return null;
+        }
+
+        long t0 = System.nanoTime();
+        int quays = finder.quayIds.length;
+        int[][] destStart = new int[quays][];
+        int[][] entries = new int[quays][];
+        IntStream.range(0, quays).parallel().forEach(q -> buildOrigin(finder, q, destStart, entries));
+
+        TripMatrix m = new TripMatrix(finder, destStart, entries);
+        System.out.println("📐 tripMatrix: " + m.tripCount() + " turer, " + megabytes(m.bytes)
+                + " (estimert " + megabytes(estimate) + "), "
+                + (System.nanoTime() - t0) / 1_000_000 + " ms");
+        return m;
+    }
+
+    /**
+     * Øvre grense for minnebruken uten å bygge: tabellen per fra-quay pluss
+     * ett par per (avgang, senere stopp i samme journey).
+     */
+    static long estimateBytes(DirectTripFinder finder) {
+        int quays = finder.quayIds.length;
+        long pairs = 0;
+        int origins = 0;
+        for (int q = 0; q < quays; q++) {
+            int lo = finder.departureStart[q], hi = finder.departureStart[q + 1];
+            if (lo == hi) continue;
+            origins++;
+            for (int i = lo; i < hi; i++) {
+                int e = finder.departureEvent[i];
+                pairs += finder.journeyStart[finder.eventJourney[e] + 1] - e - 1;
+            }
+        }
+        return 16L * quays + origins * (32L + 4L * (quays + 1)) + 8L * pairs;
+    }
+
+    /** Fyller inn tabellen for én fra-quay; hver q skrives bare av én tråd. */
+    private static void buildOrigin(DirectTripFinder f, int q, int[][] destStart, int[][] entries) {
+        int lo = f.departureStart[q], hi = f.departureStart[q + 1];
+        if (lo == hi) return;
+
+        int quays = f.quayIds.length;
+        int[] start = new int[quays + 1];
+        int[] seen = new int[quays];
+
+        // Første runde teller, andre fyller. Siste besøk etter påstigning vinner,
+        // som i DirectTripFinder.lastVisitAfter.
+        for (int pass = 0; pass < 2; pass++) {
+            int[] fill = pass == 0 ? null : Arrays.copyOf(start, quays);
+            int[] out = pass == 0 ? null : new int[2 * start[quays]];
+
+            for (int i = lo; i < hi; i++) {
+                int e = f.departureEvent[i];
+                int stamp = (pass << 30) | (i + 1);
+                for (int e2 = f.journeyStart[f.eventJourney[e] + 1] - 1; e2 > e; e2--) {
+                    int d = f.eventQuay[e2];
+                    if (d < 0 || seen[d] == stamp) continue;
+                    seen[d] = stamp;
+                    if (pass == 0) {
+                        start[d + 1]++;
+                    } else {
+                        int k = fill[d]++;
+                        out[2 * k] = i - lo;
+                        out[2 * k + 1] = e2;
+                    }
+                }
+            }
+
+            if (pass == 0) {
+                for (int d = 0; d < quays; d++) start[d + 1] += start[d];
+            } else {
+                entries[q] = out;
+            }
+        }
+        destStart[q] = start;
+    }
+
+    long memoryBytes() {
+        return bytes;
+    }
+
+    long tripCount() {
+        long n = 0;
+        for (int[] e : entries) {
+            if (e != null) n += e.length / 2;
+        }
+        return n;
+    }
+
+    /**
+     * Samme svar som {@link DirectTripFinder#findTrips(String, String, DirectTripFinder.TripWindow)},
+     * men som oppslag i matrisen. Cursoren er også den samme: posisjon i
+     * fra-quayens avgangsliste.
+     */
+    DirectTripFinder.TripPage findTrips(String startQuayId, String stopQuayId, DirectTripFinder.TripWindow window) {
+        int startQ = finder.quayIndexOf(startQuayId);
+        int stopQ = finder.quayIndexOf(stopQuayId);
+        List<DirectTripFinder.Trip> trips = new ArrayList<>();
+        if (startQ < 0 || stopQ < 0 || destStart[startQ] == null) return new DirectTripFinder.TripPage(trips, null);
+
+        int base = finder.departureStart[startQ];
+        int[] e = entries[startQ];
+        int lo = destStart[startQ][stopQ], hi = destStart[startQ][stopQ + 1];
+
+        // Første tur etter cursor eller departAfter; posisjonene er sortert på avgangstid
+        int offsetKey = window.cursor != null ? DirectTripFinder.decodeCursor(window.cursor) : -1;
+        int timeKey = window.departAfter;
+        int a = lo, b = hi;
+        while (a < b) {
+            int mid = (a + b) >>> 1;
+            boolean before = offsetKey >= 0
+                    ? e[2 * mid] < offsetKey
+                    : timeKey >= 0 && finder.departureTime[base + e[2 * mid]] < timeKey;
+            if (before) a = mid + 1;
+            else b = mid;
+        }
+        int from = a;
+
+        for (int k = from; k < hi; k++) {
+            int offset = e[2 * k];
+            int i = base + offset;
+            if (window.departAfter >= 0 && finder.departureTime[i] < window.departAfter) continue;
+
+            int startIdx = finder.departureEvent[i];
+            int stopIdx = e[2 * k + 1];
+            if (window.arriveBefore >= 0
+                    && (finder.eventArrival[stopIdx] < 0 || finder.eventArrival[stopIdx] > window.arriveBefore)) continue;
+
+            trips.add(finder.toTrip(finder.eventJourney[startIdx], startIdx, stopIdx));
+
+            if (window.limit > 0 && trips.size() >= window.limit) {
+                return new DirectTripFinder.TripPage(trips,
+                        k + 1 < hi ? DirectTripFinder.encodeCursor(offset + 1) : null);
+            }
+        }
+        return new DirectTripFinder.TripPage(trips, null);
+    }
+
+    private static String megabytes(long bytes) {
+        return String.format(Locale.ROOT, "%.1f MB", bytes / (1024.0 * 1024.0));
+    }
+
+    /**
+     * Skriver estimert og faktisk minnebruk for et datasett, som grunnlag
+     * for å velge modus: {@code TripMatrix [journeys.json] [stops.json]}.
+     */
+    public static void main(String[] args) throws Exception {
+        String journeys = args.length > 0 ? args[0] : "src/main/resources/Rutetabell/Rutetider630.json";
+        String quays    = args.length > 1 ? args[1] : "src/main/resources/Rutetabell/stops_630_only.json";
+
+        DirectTripFinder finder = new DirectTripFinder(journeys, StopRegistry.load(quays));
+        System.out.println("📐 Estimert: " + megabytes(estimateBytes(finder)));
+        build(finder, Mode.ON);
+    }
+}
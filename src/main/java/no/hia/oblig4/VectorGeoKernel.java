@@ -0,0 +1,41 @@
+package no.hia.oblig4;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Vektorisert versjon av {@link GeoKernel#scalarTerms}. Bygges bare med
+ * profilen vector (mvn -Pvector) og lastes av {@link GeoKernel} når
+ * jdk.incubator.vector er tilgjengelig ved kjøring.
+ */
+final class VectorGeoKernel implements GeoKernel.Terms {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    VectorGeoKernel() {
+    }
+
+    @Override
+    public int lanes() {
+        return SPECIES.length();
+    }
+
+    @Override
+    public void terms(GeoKernel.Points p, int from, int to, GeoKernel.Query q, double[] out) {
+        int i = from;
+        int upper = from + SPECIES.loopBound(to - from);
+        for (; i < upper; i += SPECIES.length()) {
+            DoubleVector sinHalfLat = DoubleVector.fromArray(SPECIES, p.sinHalfLat, i);
+            DoubleVector cosHalfLat = DoubleVector.fromArray(SPECIES, p.cosHalfLat, i);
+            DoubleVector sinHalfLon = DoubleVector.fromArray(SPECIES, p.sinHalfLon, i);
+            DoubleVector cosHalfLon = DoubleVector.fromArray(SPECIES, p.cosHalfLon, i);
+            DoubleVector cosLat = DoubleVector.fromArray(SPECIES, p.cosLat, i);
+
+            DoubleVector dPhi = sinHalfLat.mul(q.cosHalfLat).sub(cosHalfLat.mul(q.sinHalfLat));
+            DoubleVector dLambda = sinHalfLon.mul(q.cosHalfLon).sub(cosHalfLon.mul(q.sinHalfLon));
+            DoubleVector a = dPhi.mul(dPhi).add(cosLat.mul(q.cosLat).mul(dLambda.mul(dLambda)));
+            a.intoArray(out, i - from);
+        }
+        GeoKernel.scalarTerms(p, i, to, q, out, i - from);
+    }
+}
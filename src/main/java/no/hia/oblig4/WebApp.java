@@ -2,11 +2,25 @@ package no.hia.oblig4;
 
 import static spark.Spark.*;
 
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.net.ServerSocket;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.sql.*;
+import java.time.Clock;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class WebApp {
 
@@ -15,13 +29,54 @@ public class WebApp {
 
     private static final String JOURNEYS_PATH = "src/main/resources/Rutetabell/Rutetider630.json";
     private static final String QUAYS_PATH    = "src/main/resources/Rutetabell/stops_630_only.json";
+    private static final String SNAPSHOT_PATH = TimetableSnapshot.DEFAULT_PATH;
+
+    /** MOCK_TRIP_MATRIX=on|auto|off: forhåndsberegn alle direkte turer ved innlasting. */
+    private static final TripMatrix.Mode TRIP_MATRIX_MODE = TripMatrix.Mode.parse(System.getenv("MOCK_TRIP_MATRIX"));
 
-    private static StopSearch        MOCK_STOP_SEARCH;
-    private static DirectTripFinder  MOCK_TRIP_FINDER;
     private static EnturClient       ENTUR_CLIENT;
-    private static NearestStopFinder NEAREST_STOP_FINDER;
 
-    private static final DelaySimulator DELAY_SIM = new DelaySimulator();
+    /**
+     * Samlet stoppsøk (/api/stops/search). ENTUR_GEOCODER_URL bytter geocoder
+     * (f.eks. en lokal stub), STOP_SEARCH_BUDGET_MS er tidsbudsjettet når
+     * geocoderen spørres (0 slår den av), og STOP_SEARCH_MIN_LOCAL er hvor
+     * mange lokale treff som holder.
+     */
+    private static LocalFirstStopSearch STOP_SEARCH;
+
+    /**
+     * Gjeldende mock-datasett (null til første innlasting er ferdig). Ved reload
+     * bygges et nytt sett i bakgrunnen og publiseres med ett atomisk bytte.
+     */
+    private static final AtomicReference<MockData> MOCK_DATA = new AtomicReference<>();
+    private static final AtomicLong DATA_VERSION = new AtomicLong();
+    private static final StartupStatus STARTUP = MockData.newStatus();
+
+    private static final ExecutorService LOADER = Executors.newFixedThreadPool(
+            Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors())), r -> {
+                Thread t = new Thread(r, "mock-data-loader");
+                t.setDaemon(true);
+                return t;
+            });
+
+    /**
+     * Simulerte forsinkelser, like på alle noder med samme DELAY_SEED.
+     * DELAY_CACHE_ENTRIES &gt; 0 slår på en begrenset cache. Opprettes i main.
+     */
+    private static DelaySimulator DELAY_SIM;
+
+    /**
+     * Cache for /api/mock/trips og /api/mock/tripsByName. MOCK_TRIP_CACHE_MB=0 slår
+     * den av; MOCK_TRIP_CACHE_JSON=false lagrer bare turene, ikke ferdig JSON.
+     * Opprettes i main.
+     */
+    private static TripCache TRIP_CACHE;
+
+    /** Egen pool for batch-spørringer, så de ikke konkurrerer med common pool. */
+    private static final ForkJoinPool BATCH_POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    /** Gangfart i luftlinje for /api/mock/tripsFromLocation (ca. 4,7 km/t). */
+    private static final double WALK_METERS_PER_SECOND = 1.3;
 
 
     private static String jsonEscape(String s) {
@@ -48,6 +103,18 @@ public class WebApp {
         return sb.toString();
     }
 
+    /** Heltall fra miljøet; mangler det eller er ugyldig brukes standardverdien (med en advarsel). */
+    private static long envLong(String name, long fallback) {
+        String v = System.getenv(name);
+        if (v == null || v.isBlank()) return fallback;
+        try {
+            return Long.parseLong(v.trim());
+        } catch (NumberFormatException e) {
+            System.err.println("⚠️  Ugyldig " + name + "=\"" + v + "\", bruker " + fallback);
+            return fallback;
+        }
+    }
+
     private static int pickFreePortNear(int start) {
         for (int i = 0; i < 10; i++) {
             int cand = start + i;
@@ -58,56 +125,209 @@ public class WebApp {
         return start;
     }
 
-    private static String normalizeQuayId(String input) {
-        if (input == null) return null;
-        String s = input.trim();
-        if (s.matches("^\\d+$")) return "NSR:Quay:" + s;
-        return s;
+    /** Svaret fra /api/mock/trips og /api/mock/tripsByName. */
+    private static String tripsResponseJson(MockData data, String fromId, String toId,
+                                            DirectTripFinder.TripPage page) {
+        StringBuilder json = new StringBuilder(512);
+        json.append('{');
+
+        json.append("\"from\":{")
+                .append("\"id\":").append(jsonEscape(fromId)).append(',')
+                .append("\"name\":").append(jsonEscape(data.stopSearch.getStopName(fromId)))
+                .append("},");
+
+        json.append("\"to\":{")
+                .append("\"id\":").append(jsonEscape(toId)).append(',')
+                .append("\"name\":").append(jsonEscape(data.stopSearch.getStopName(toId)))
+                .append("},");
+
+        json.append("\"trips\":[");
+        appendTrips(json, page.trips, fromId, toId);
+        json.append("],");
+
+        json.append("\"nextCursor\":").append(page.nextCursor == null ? "null" : jsonEscape(page.nextCursor));
+
+        json.append('}');
+        return json.toString();
     }
 
-    private static String guessKnownPlaceName(String raw) {
-        if (raw == null) return null;
-        String u = raw.trim().toLowerCase(Locale.ROOT);
-        if (u.isEmpty()) return null;
+    /**
+     * Skriver turene som JSON-objekter (uten klammer), med simulert forsinkelse.
+     */
+    private static void appendTrips(StringBuilder json, List<DirectTripFinder.Trip> trips,
+                                    String fromId, String toId) {
+        boolean first = true;
+        for (DirectTripFinder.Trip t : trips) {
+            if (!first) json.append(',');
+            first = false;
+            json.append('{');
+            appendTripFields(json, t, fromId, toId);
+            json.append('}');
+        }
+    }
+
+    /** Feltene for én tur, med forsinkelse, uten krøllparenteser rundt. */
+    private static void appendTripFields(StringBuilder json, DirectTripFinder.Trip t, String fromId, String toId) {
+        DelaySimulator.DelayInfo d = DELAY_SIM.getDelay(t, fromId, toId);
+
+        json.append("\"serviceJourneyId\":").append(jsonEscape(t.serviceJourneyId)).append(',')
+                .append("\"line\":").append(jsonEscape(t.line)).append(',')
+                .append("\"direction\":").append(jsonEscape(t.direction)).append(',')
+                .append("\"departureTime\":").append(jsonEscape(t.departureTime)).append(',')
+                .append("\"arrivalTime\":").append(jsonEscape(t.arrivalTime)).append(',')
+                .append("\"stopsBeforeDest\":").append(t.stopsBeforeDest).append(',')
+                .append("\"durationMinutes\":").append(t.durationMinutes).append(',')
+                .append("\"delayMinutes\":").append(d.delayMinutes).append(',')
+                .append("\"newDeparture\":").append(d.newDeparture == null ? "null" : jsonEscape(d.newDeparture)).append(',')
+                .append("\"newArrival\":").append(d.newArrival == null ? "null" : jsonEscape(d.newArrival));
+    }
 
-        String[] known = {"halden", "fredrikstad", "moss"};
-        int bestDist = Integer.MAX_VALUE;
-        String best = null;
+    /**
+     * Leser tidsvindu og sideinndeling (departAfter, arriveBefore, limit, cursor)
+     * fra forespørselen. Tider som "HH:MM" eller "HH:MM:SS". Null ved ugyldig input.
+     */
+    private static DirectTripFinder.TripWindow parseTripWindow(spark.Request req) {
+        String after  = req.queryParams("departAfter");
+        String before = req.queryParams("arriveBefore");
+        String lim    = req.queryParams("limit");
+        String cursor = req.queryParams("cursor");
+
+        int departAfter  = (after == null || after.isBlank()) ? -1 : DirectTripFinder.parseTimeToSeconds(after.trim());
+        int arriveBefore = (before == null || before.isBlank()) ? -1 : DirectTripFinder.parseTimeToSeconds(before.trim());
+        if ((after != null && !after.isBlank() && departAfter < 0)
+                || (before != null && !before.isBlank() && arriveBefore < 0)) {
+            return null;
+        }
 
-        for (String k : known) {
-            int d = levenshtein(u, k);
-            if (d < bestDist) {
-                bestDist = d;
-                best = k;
+        int limit = 0;
+        if (lim != null && !lim.isBlank()) {
+            try {
+                limit = Integer.parseInt(lim.trim());
+            } catch (NumberFormatException e) {
+                return null;
             }
         }
 
-        if (bestDist <= 3) {
-            return best;
+        return new DirectTripFinder.TripWindow(departAfter, arriveBefore, limit,
+                cursor == null || cursor.isBlank() ? null : cursor.trim());
+    }
+
+    /** Én parameter fra en rå query-streng, uten å røre forespørselskroppen. */
+    private static String urlQueryParam(String query, String name) {
+        if (query == null) return null;
+        for (String part : query.split("&")) {
+            int eq = part.indexOf('=');
+            String key = URLDecoder.decode(eq < 0 ? part : part.substring(0, eq), StandardCharsets.UTF_8);
+            if (key.equals(name)) return eq < 0 ? "" : URLDecoder.decode(part.substring(eq + 1), StandardCharsets.UTF_8);
         }
         return null;
     }
 
-    private static int levenshtein(String a, String b) {
-        int n = a.length();
-        int m = b.length();
-        int[][] dp = new int[n + 1][m + 1];
+    /** Gyldig breddegrad og lengdegrad (false for NaN og uendelig). */
+    private static boolean isLatLon(double lat, double lon) {
+        return lat >= -90 && lat <= 90 && lon >= -180 && lon <= 180;
+    }
+
+    /** Tidsstempel tilbake som JSON: tall som tall, ellers streng (eller null). */
+    private static String timeJson(String time, boolean numeric) {
+        return numeric ? time : jsonEscape(time);
+    }
+
+    /**
+     * Quays for en ende av en reise: quayId gir én quay, ellers gir navnet
+     * alle quays med det navnet. Null hvis ingen av dem er oppgitt.
+     */
+    private static List<String> resolveQuays(MockData data, String quayId, String name) {
+        if (quayId != null && !quayId.isBlank()) {
+            return List.of(StopRegistry.normalizeQuayId(quayId.trim()));
+        }
+        if (name == null || name.isBlank()) return null;
+        return lookupOrGuess(data, name.trim());
+    }
 
-        for (int i = 0; i <= n; i++) dp[i][0] = i;
-        for (int j = 0; j <= m; j++) dp[0][j] = j;
+    /** Navnesøk, og er det tomt, søk på nærmeste kjente navn ("mente du"). */
+    private static List<String> lookupOrGuess(MockData data, String name) {
+        List<String> ids = data.stopSearch.lookup(name);
+        if (!ids.isEmpty()) return ids;
+
+        String guess = data.stopSearch.didYouMean(name);
+        if (guess == null) return ids;
+        System.out.println("🔤 tolket \"" + name + "\" som \"" + guess + "\"");
+        return data.stopSearch.lookup(guess);
+    }
 
-        for (int i = 1; i <= n; i++) {
-            char ca = a.charAt(i - 1);
-            for (int j = 1; j <= m; j++) {
-                char cb = b.charAt(j - 1);
-                int cost = (ca == cb) ? 0 : 1;
-                dp[i][j] = Math.min(
-                        Math.min(dp[i - 1][j] + 1, dp[i][j - 1] + 1),
-                        dp[i - 1][j - 1] + cost
-                );
+    /**
+     * Starter innlasting av mock-dataene i bakgrunnen (se {@link MockData#load}).
+     * Oppstartstiden blir styrt av den tregeste lasteren, ikke summen.
+     */
+    private static void startLoadingMockData() {
+        MockData.load(JOURNEYS_PATH, QUAYS_PATH, SNAPSHOT_PATH, TRIP_MATRIX_MODE, DATA_VERSION.incrementAndGet(), STARTUP, LOADER)
+                .whenComplete((data, e) -> {
+                    if (e == null) {
+                        if (!publish(data)) {
+                            System.out.println("⏭️  Første innlasting (versjon " + data.version
+                                    + ") ble forbigått av en nyere reload");
+                            return;
+                        }
+                        System.out.println("🅿️  Mock-stopp lastet fra: " + QUAYS_PATH);
+                        System.out.println("🚌 Mock-ruter lastet fra: " + JOURNEYS_PATH);
+                    } else {
+                        System.err.println("❌ Klarte ikke å laste mock-data fra JSON-filene");
+                    }
+                });
+    }
+
+    /**
+     * Publiserer et ferdig datasett hvis det er nyere enn det gjeldende. Den
+     * første innlastingen og en reload kan bli ferdige i vilkårlig rekkefølge,
+     * og et eldre sett skal aldri overskrive et nyere.
+     */
+    private static boolean publish(MockData data) {
+        return MOCK_DATA.updateAndGet(cur -> cur == null || cur.version < data.version ? data : cur) == data;
+    }
+
+    /** Utfallet av en reload, med HTTP-statusen /admin/reload svarer med. */
+    enum ReloadOutcome {
+        OK(200), SUPERSEDED(409), FAILED(500);
+
+        final int httpStatus;
+
+        ReloadOutcome(int httpStatus) {
+            this.httpStatus = httpStatus;
+        }
+    }
+
+    /** Utfall og JSON-svar fra {@link #reloadMockData}. */
+    record ReloadResult(ReloadOutcome outcome, String json) {
+    }
+
+    /**
+     * Bygger mock-dataene på nytt og bytter dem inn atomisk. Forespørsler som
+     * allerede kjører fortsetter på det gamle settet. Feiler byggingen beholdes
+     * det gamle.
+     */
+    static synchronized ReloadResult reloadMockData() {
+        StartupStatus status = MockData.newStatus();
+        long version = DATA_VERSION.incrementAndGet();
+        try {
+            MockData data = MockData.load(JOURNEYS_PATH, QUAYS_PATH, SNAPSHOT_PATH, TRIP_MATRIX_MODE, version, status, LOADER).join();
+            if (!publish(data)) {
+                MockData current = MOCK_DATA.get();
+                System.out.println("⏭️  Reload (versjon " + version + ") forbigått av versjon " + current.version);
+                return new ReloadResult(ReloadOutcome.SUPERSEDED, "{\"status\":\"superseded\",\"version\":"
+                        + current.version + ",\"details\":" + status.toJson() + "}");
             }
+            System.out.println("🔁 Mock-data lastet på nytt (versjon " + version + ", " + data.buildMillis + " ms)");
+            return new ReloadResult(ReloadOutcome.OK, "{\"status\":\"ok\",\"version\":" + version
+                    + ",\"buildMs\":" + data.buildMillis
+                    + ",\"details\":" + status.toJson() + "}");
+        } catch (Exception e) {
+            MockData current = MOCK_DATA.get();
+            System.err.println("❌ Reload feilet, beholder versjon " + (current == null ? "-" : current.version));
+            return new ReloadResult(ReloadOutcome.FAILED, "{\"status\":\"failed\",\"version\":"
+                    + (current == null ? "null" : current.version)
+                    + ",\"details\":" + status.toJson() + "}");
         }
-        return dp[n][m];
     }
 
     public static void main(String[] args) {
@@ -136,29 +356,65 @@ public class WebApp {
         UserCreator       userCreator = new UserCreator(jdbcUrl);
         UserDeleter       userDeleter = new UserDeleter(jdbcUrl);
 
-        try {
-            MOCK_STOP_SEARCH     = new StopSearch(QUAYS_PATH);
-            MOCK_TRIP_FINDER     = new DirectTripFinder(JOURNEYS_PATH);
-            NEAREST_STOP_FINDER  = new NearestStopFinder(QUAYS_PATH);
+        TRIP_CACHE = new TripCache(Math.max(0, envLong("MOCK_TRIP_CACHE_MB", 32)) * 1024 * 1024,
+                Boolean.parseBoolean(System.getenv().getOrDefault("MOCK_TRIP_CACHE_JSON", "true")));
 
-            System.out.println("🅿️  Mock-stopp lastet fra: " + QUAYS_PATH);
-            System.out.println("🚌 Mock-ruter lastet fra: " + JOURNEYS_PATH);
-        } catch (Exception e) {
-            System.err.println("❌ Klarte ikke å laste mock-data fra JSON-filene");
-            e.printStackTrace();
-            MOCK_STOP_SEARCH     = null;
-            MOCK_TRIP_FINDER     = null;
-            NEAREST_STOP_FINDER  = null;
+        DELAY_SIM = new DelaySimulator(envLong("DELAY_SEED", 0), Clock.system(ZoneId.of("Europe/Oslo")),
+                (int) Math.max(0, Math.min(1 << 24, envLong("DELAY_CACHE_ENTRIES", 0))));
+
+        startLoadingMockData();
+
+        if (Boolean.parseBoolean(System.getenv().getOrDefault("MOCK_RELOAD_WATCH", "false"))) {
+            TimetableWatcher.start(Path.of(JOURNEYS_PATH).getParent(), WebApp::reloadMockData);
         }
 
-        ENTUR_CLIENT = new EnturClient(CLIENT_NAME);
+        ENTUR_CLIENT = new EnturClient(CLIENT_NAME, System.getenv("ENTUR_GEOCODER_URL"));
+        STOP_SEARCH = new LocalFirstStopSearch(ENTUR_CLIENT,
+                Math.max(0, envLong("STOP_SEARCH_BUDGET_MS", 400)),
+                (int) Math.max(0, Math.min(Integer.MAX_VALUE, envLong("STOP_SEARCH_MIN_LOCAL", 3))));
 
         System.out.println("📡 Starter på port " + p + " (ønsket: " + desired + ")");
         System.out.println("📄 Statisk innhold fra: src/main/resources/public");
 
 
+        // Liveness: prosessen lever og svarer
+        get("/health/live", (req, res) -> "ok");
+
+        // Readiness: 200 først når alle datasett er lastet, ellers 503. Kroppen er
+        // samlet status med lastetider per datasett, også mens lastingen pågår
+        get("/health/ready", (req, res) -> {
+            res.status(STARTUP.isReady() ? 200 : 503);
+            res.type("application/json; charset=utf-8");
+            return STARTUP.toJson();
+        });
+
         get("/health", (req, res) -> "ok");
 
+        // Mock-endepunktene svarer 503 så lenge dataene fortsatt lastes
+        before("/api/mock/*", (req, res) -> {
+            if (STARTUP.isLoading()) {
+                halt(503, "mock-data-loading");
+            }
+        });
+
+        get("/api/mock/cache/stats", (req, res) -> {
+            res.type("application/json; charset=utf-8");
+            return TRIP_CACHE.statsJson();
+        });
+
+        // Last rutetabellen på nytt uten restart. Bare tilgjengelig fra localhost.
+        post("/admin/reload", (req, res) -> {
+            String ip = req.ip();
+            if (!"127.0.0.1".equals(ip) && !"0:0:0:0:0:0:0:1".equals(ip)) {
+                res.status(403);
+                return "forbidden";
+            }
+            ReloadResult result = reloadMockData();
+            res.status(result.outcome().httpStatus);
+            res.type("application/json; charset=utf-8");
+            return result.json();
+        });
+
         post("/login", (req, res) -> {
             String username = req.queryParams("username");
             String password = req.queryParams("password");
@@ -318,7 +574,7 @@ public class WebApp {
             }
 
             boolean ok = favs.addFavorite(userId,
-                    normalizeQuayId(quayId.trim()),
+                    StopRegistry.normalizeQuayId(quayId.trim()),
                     note == null ? null : note.trim());
             if (!ok) {
                 res.status(409);
@@ -352,7 +608,7 @@ public class WebApp {
             }
 
             boolean ok = favs.setPosition(userId,
-                    normalizeQuayId(quayId.trim()), pos);
+                    StopRegistry.normalizeQuayId(quayId.trim()), pos);
             if (!ok) {
                 res.status(404);
                 return "not-found-or-bad-quay";
@@ -370,21 +626,14 @@ public class WebApp {
                 return "missing-q";
             }
 
-            if (MOCK_STOP_SEARCH == null) {
+            MockData data = MOCK_DATA.get();
+            if (data == null) {
                 res.status(500);
                 return "stop-search-not-available";
             }
 
             String term = q.trim();
-            List<String> ids = MOCK_STOP_SEARCH.lookup(term);
-
-            if (ids.isEmpty()) {
-                String guess = guessKnownPlaceName(term);
-                if (guess != null) {
-                    System.out.println("🔤 /api/mock/stops: tolket \"" + term + "\" som \"" + guess + "\"");
-                    ids = MOCK_STOP_SEARCH.lookup(guess);
-                }
-            }
+            List<String> ids = lookupOrGuess(data, term);
 
             if (ids.isEmpty()) {
                 System.out.println("❌ /api/mock/stops: ukjent sted \"" + term + "\"");
@@ -398,7 +647,7 @@ public class WebApp {
             json.append('[');
             boolean first = true;
             for (String id : ids) {
-                String name = MOCK_STOP_SEARCH.getStopName(id);
+                String name = data.stopSearch.getStopName(id);
                 if (name == null) continue;
 
                 if (!first) json.append(',');
@@ -415,6 +664,102 @@ public class WebApp {
             return json.toString();
         });
 
+        // Autocomplete: navn der navnet eller et ord begynner med q, best først
+        get("/api/mock/stops/suggest", (req, res) -> {
+            String q = req.queryParams("q");
+            if (q == null || q.isBlank()) {
+                res.status(400);
+                return "missing-q";
+            }
+
+            int limit = PrefixIndex.MAX_K;
+            String limitParam = req.queryParams("limit");
+            if (limitParam != null && !limitParam.isBlank()) {
+                try {
+                    limit = Integer.parseInt(limitParam.trim());
+                } catch (NumberFormatException e) {
+                    res.status(400);
+                    return "bad-limit";
+                }
+            }
+
+            MockData data = MOCK_DATA.get();
+            if (data == null) {
+                res.status(500);
+                return "stop-search-not-available";
+            }
+
+            StringBuilder json = new StringBuilder(256);
+            json.append('[');
+            boolean first = true;
+            for (StopSearch.Suggestion s : data.stopSearch.suggest(q, limit)) {
+                if (!first) json.append(',');
+                first = false;
+
+                json.append('{')
+                        .append("\"name\":").append(jsonEscape(s.name)).append(',')
+                        .append("\"ids\":[");
+                for (int i = 0; i < s.ids.size(); i++) {
+                    if (i > 0) json.append(',');
+                    json.append(jsonEscape(s.ids.get(i)));
+                }
+                json.append("],\"match\":").append(jsonEscape(s.match))
+                        .append('}');
+            }
+            json.append(']');
+
+            res.type("application/json; charset=utf-8");
+            return json.toString();
+        });
+
+        // Samlet søk: lokal indeks først, Entur-geocoderen bare ved få lokale treff
+        get("/api/stops/search", (req, res) -> {
+            String q = req.queryParams("q");
+            if (q == null || q.isBlank()) {
+                res.status(400);
+                return "missing-q";
+            }
+
+            int limit = 10;
+            String limitParam = req.queryParams("limit");
+            if (limitParam != null && !limitParam.isBlank()) {
+                try {
+                    limit = Integer.parseInt(limitParam.trim());
+                } catch (NumberFormatException e) {
+                    res.status(400);
+                    return "bad-limit";
+                }
+                if (limit <= 0 || limit > 50) {
+                    res.status(400);
+                    return "bad-limit";
+                }
+            }
+
+            MockData data = MOCK_DATA.get();
+            LocalFirstStopSearch.Result result = STOP_SEARCH.search(data == null ? null : data.stopSearch, q, limit);
+            System.out.println("🔎 /api/stops/search: \"" + q.trim() + "\" ga " + result.hits.size()
+                    + " treff (geocoder: " + result.geocoder + ", " + result.millis + " ms)");
+
+            StringBuilder json = new StringBuilder(256);
+            json.append("{\"query\":").append(jsonEscape(q.trim()))
+                    .append(",\"geocoder\":").append(jsonEscape(result.geocoder))
+                    .append(",\"results\":[");
+            for (int i = 0; i < result.hits.size(); i++) {
+                LocalFirstStopSearch.Hit h = result.hits.get(i);
+                if (i > 0) json.append(',');
+                json.append('{')
+                        .append("\"id\":").append(jsonEscape(h.id)).append(',')
+                        .append("\"name\":").append(jsonEscape(h.name)).append(',')
+                        .append("\"source\":").append(jsonEscape(h.source)).append(',')
+                        .append("\"match\":").append(jsonEscape(h.match))
+                        .append('}');
+            }
+            json.append("]}");
+
+            res.type("application/json; charset=utf-8");
+            return json.toString();
+        });
+
         get("/api/mock/trips", (req, res) -> {
 
             String fromIdRaw = req.queryParams("fromId");
@@ -425,107 +770,106 @@ public class WebApp {
                 return "missing-fromId-or-toId";
             }
 
-            if (MOCK_TRIP_FINDER == null || MOCK_STOP_SEARCH == null) {
+            MockData data = MOCK_DATA.get();
+            if (data == null) {
                 res.status(500);
                 return "trip-finder-or-stop-search-not-available";
             }
 
+            DirectTripFinder.TripWindow window = parseTripWindow(req);
+            if (window == null) {
+                res.status(400);
+                return "bad-time-window";
+            }
+
             String originalFromId = fromIdRaw.trim();
             String originalToId   = toIdRaw.trim();
 
-            String effectiveFromId = originalFromId;
-            String effectiveToId   = originalToId;
-
-            List<DirectTripFinder.Trip> trips =
-                    MOCK_TRIP_FINDER.findTrips(effectiveFromId, effectiveToId);
-
-            if (trips.isEmpty()) {
-                String fromName = MOCK_STOP_SEARCH.getStopName(originalFromId);
-                String toName   = MOCK_STOP_SEARCH.getStopName(originalToId);
-
-                if (fromName != null && toName != null) {
-                    List<String> fromCandidates = MOCK_STOP_SEARCH.lookup(fromName);
-                    List<String> toCandidates   = MOCK_STOP_SEARCH.lookup(toName);
-
-                    boolean found = false;
-                    outer:
-                    for (String fId : fromCandidates) {
-                        for (String tId : toCandidates) {
-                            if (fId.equals(originalFromId) && tId.equals(originalToId)) continue;
-
-                            List<DirectTripFinder.Trip> altTrips =
-                                    MOCK_TRIP_FINDER.findTrips(fId, tId);
-                            if (!altTrips.isEmpty()) {
-                                System.out.println("🔄 /api/mock/trips: fant alternativ kombinasjon "
-                                        + fId + " → " + tId + " for "
-                                        + originalFromId + " → " + originalToId);
-                                trips = altTrips;
-                                effectiveFromId = fId;
-                                effectiveToId   = tId;
-                                found = true;
-                                break outer;
-                            }
-                        }
-                    }
-
-                    if (!found) {
-                        System.out.println("❌ /api/mock/trips: fant ingen alternativ kombinasjon for "
-                                + originalFromId + " → " + originalToId + " (" + fromName + " → " + toName + ")");
-                    }
-                } else {
-                    System.out.println("❌ /api/mock/trips: mangler navn for fromId/toId, kan ikke prøve alternativ retning.");
-                }
+            TripCache.Key cacheKey = TripCache.key(data.version, DELAY_SIM.serviceDay(), "trips",
+                    originalFromId, originalToId, window);
+            TripCache.Entry cached = TRIP_CACHE.get(cacheKey);
+            if (cached != null) {
+                res.type("application/json; charset=utf-8");
+                return cached.json != null ? cached.json
+                        : tripsResponseJson(data, cached.fromId, cached.toId, cached.page);
             }
 
-            String fromNameUsed = MOCK_STOP_SEARCH.getStopName(effectiveFromId);
-            String toNameUsed   = MOCK_STOP_SEARCH.getStopName(effectiveToId);
+            MockData.ResolvedTrips resolved;
+            try {
+                resolved = data.resolveTrips(originalFromId, originalToId, window);
+            } catch (IllegalArgumentException e) {
+                res.status(400);
+                return "bad-cursor";
+            }
 
-            StringBuilder json = new StringBuilder(512);
-            json.append('{');
+            String json = tripsResponseJson(data, resolved.fromId(), resolved.toId(), resolved.page());
+            TRIP_CACHE.put(cacheKey, resolved.fromId(), resolved.toId(), resolved.page(),
+                    TRIP_CACHE.storesJson() ? json.getBytes(StandardCharsets.UTF_8) : null);
 
-            json.append("\"from\":{")
-                    .append("\"id\":").append(jsonEscape(effectiveFromId)).append(',')
-                    .append("\"name\":").append(jsonEscape(fromNameUsed != null ? fromNameUsed : effectiveFromId))
-                    .append("},");
+            res.type("application/json; charset=utf-8");
+            return json;
+        });
 
-            json.append("\"to\":{")
-                    .append("\"id\":").append(jsonEscape(effectiveToId)).append(',')
-                    .append("\"name\":").append(jsonEscape(toNameUsed != null ? toNameUsed : effectiveToId))
-                    .append("},");
 
-            json.append("\"trips\":[");
-            boolean first = true;
-            for (DirectTripFinder.Trip t : trips) {
-                if (!first) json.append(',');
-                first = false;
+        post("/api/mock/trips/batch", (req, res) -> {
 
-                DelaySimulator.DelayInfo d = DELAY_SIM.getDelay(t, effectiveFromId, effectiveToId);
+            MockData data = MOCK_DATA.get();
+            if (data == null) {
+                res.status(500);
+                return "mock-data-not-available";
+            }
 
-                json.append('{')
-                        .append("\"serviceJourneyId\":").append(jsonEscape(t.serviceJourneyId)).append(',')
-                        .append("\"line\":").append(jsonEscape(t.line)).append(',')
-                        .append("\"direction\":").append(jsonEscape(t.direction)).append(',')
-                        .append("\"departureTime\":").append(jsonEscape(t.departureTime)).append(',')
-                        .append("\"arrivalTime\":").append(jsonEscape(t.arrivalTime)).append(',')
-                        .append("\"stopsBeforeDest\":").append(t.stopsBeforeDest).append(',')
-                        .append("\"durationMinutes\":").append(t.durationMinutes).append(',')
-                        .append("\"delayMinutes\":").append(d.delayMinutes).append(',')
-                        .append("\"newDeparture\":").append(d.newDeparture == null ? "null" : jsonEscape(d.newDeparture)).append(',')
-                        .append("\"newArrival\":").append(d.newArrival == null ? "null" : jsonEscape(d.newArrival))
-                        .append('}');
+            List<TripBatch.Query> queries;
+            try (JsonPullReader r = new JsonPullReader(req.raw().getInputStream())) {
+                queries = TripBatch.parse(r);
+            } catch (RuntimeException e) {
+                res.status(400);
+                return "bad-batch: " + e.getMessage();
             }
-            json.append(']');
 
-            json.append('}');
+            // Én JSON-linje per spørring, i den rekkefølgen de blir ferdige
+            res.status(200);
+            res.type("application/x-ndjson; charset=utf-8");
+            OutputStream out = res.raw().getOutputStream();
 
-            res.type("application/json; charset=utf-8");
-            return json.toString();
-        });
+            try {
+                TripBatch.run(data, queries, BATCH_POOL, new TripBatch.Sink() {
+                    @Override
+                    public void result(TripBatch.Query q, MockData.ResolvedTrips trips) throws IOException {
+                        DirectTripFinder.TripPage page = trips.page();
+                        StringBuilder json = new StringBuilder(256 + 256 * page.trips.size());
+                        json.append("{\"index\":").append(q.index).append(',')
+                                .append("\"fromId\":").append(jsonEscape(trips.fromId())).append(',')
+                                .append("\"toId\":").append(jsonEscape(trips.toId())).append(',')
+                                .append("\"trips\":[");
+                        appendTrips(json, page.trips, trips.fromId(), trips.toId());
+                        json.append("],\"nextCursor\":")
+                                .append(page.nextCursor == null ? "null" : jsonEscape(page.nextCursor))
+                                .append("}\n");
+                        write(json);
+                    }
+
+                    @Override
+                    public void error(TripBatch.Query q, String error) throws IOException {
+                        write(new StringBuilder("{\"index\":").append(q.index)
+                                .append(",\"error\":").append(jsonEscape(error)).append("}\n"));
+                    }
 
+                    private void write(StringBuilder line) throws IOException {
+                        out.write(line.toString().getBytes(StandardCharsets.UTF_8));
+                        out.flush();
+                    }
+                });
+            } catch (IOException e) {
+                System.out.println("🔌 /api/mock/trips/batch: klienten koblet fra, stopper batchen");
+            }
+            return "";
+        });
 
         get("/api/mock/tripsByName", (req, res) -> {
 
-            if (MOCK_STOP_SEARCH == null || MOCK_TRIP_FINDER == null) {
+            MockData data = MOCK_DATA.get();
+            if (data == null) {
                 res.status(500);
                 return "mock-data-not-available";
             }
@@ -542,13 +886,8 @@ public class WebApp {
             fromName = fromName.trim();
             toName   = toName.trim();
 
-            String gFrom = guessKnownPlaceName(fromName);
-            if (gFrom != null) fromName = gFrom;
-            String gTo   = guessKnownPlaceName(toName);
-            if (gTo != null) toName = gTo;
-
-            List<String> fromIds = MOCK_STOP_SEARCH.lookup(fromName);
-            List<String> toIds   = MOCK_STOP_SEARCH.lookup(toName);
+            List<String> fromIds = lookupOrGuess(data, fromName);
+            List<String> toIds   = lookupOrGuess(data, toName);
 
             if (fromIds.isEmpty() || toIds.isEmpty()) {
                 res.status(404);
@@ -558,45 +897,254 @@ public class WebApp {
             String fromId = fromIds.get(0);
             String toId   = toIds.get(0);
 
-            List<DirectTripFinder.Trip> trips = MOCK_TRIP_FINDER.findTrips(fromId, toId);
+            DirectTripFinder.TripWindow window = parseTripWindow(req);
+            if (window == null) {
+                res.status(400);
+                return "bad-time-window";
+            }
 
-            StringBuilder json = new StringBuilder(512);
-            json.append('{');
+            TripCache.Key cacheKey = TripCache.key(data.version, DELAY_SIM.serviceDay(), "tripsByName",
+                    fromId, toId, window);
+            TripCache.Entry cached = TRIP_CACHE.get(cacheKey);
+            if (cached != null) {
+                res.type("application/json; charset=utf-8");
+                return cached.json != null ? cached.json
+                        : tripsResponseJson(data, cached.fromId, cached.toId, cached.page);
+            }
 
-            json.append("\"from\":{")
-                    .append("\"id\":").append(jsonEscape(fromId)).append(',')
-                    .append("\"name\":").append(jsonEscape(MOCK_STOP_SEARCH.getStopName(fromId)))
-                    .append("},");
+            DirectTripFinder.TripPage page;
+            try {
+                page = data.findTrips(fromId, toId, window);
+            } catch (IllegalArgumentException e) {
+                res.status(400);
+                return "bad-cursor";
+            }
 
-            json.append("\"to\":{")
-                    .append("\"id\":").append(jsonEscape(toId)).append(',')
-                    .append("\"name\":").append(jsonEscape(MOCK_STOP_SEARCH.getStopName(toId)))
-                    .append("},");
+            String json = tripsResponseJson(data, fromId, toId, page);
+            TRIP_CACHE.put(cacheKey, fromId, toId, page,
+                    TRIP_CACHE.storesJson() ? json.getBytes(StandardCharsets.UTF_8) : null);
 
-            json.append("\"trips\":[");
-            boolean first = true;
-            for (DirectTripFinder.Trip t : trips) {
-                if (!first) json.append(',');
-                first = false;
+            res.type("application/json; charset=utf-8");
+            return json;
+        });
+
+        get("/api/mock/journeys", (req, res) -> {
+
+            MockData data = MOCK_DATA.get();
+            if (data == null) {
+                res.status(500);
+                return "mock-data-not-available";
+            }
+
+            List<String> fromIds = resolveQuays(data, req.queryParams("fromId"), req.queryParams("from"));
+            List<String> toIds   = resolveQuays(data, req.queryParams("toId"), req.queryParams("to"));
+            if (fromIds == null || toIds == null) {
+                res.status(400);
+                return "missing-from-or-to";
+            }
+
+            int[] origins = data.tripFinder.quayIndexes(fromIds);
+            int[] targets = data.tripFinder.quayIndexes(toIds);
+            if (origins.length == 0 || targets.length == 0) {
+                res.status(404);
+                return "no-stops-found";
+            }
+
+            String after = req.queryParams("departAfter");
+            int departAfter = after == null || after.isBlank() ? 0 : DirectTripFinder.parseTimeToSeconds(after.trim());
+            int maxTransfers, minTransferSeconds;
+            try {
+                String mt = req.queryParams("maxTransfers");
+                String mc = req.queryParams("minTransferMinutes");
+                maxTransfers = mt == null || mt.isBlank()
+                        ? JourneyPlanner.DEFAULT_MAX_TRANSFERS : Integer.parseInt(mt.trim());
+                minTransferSeconds = mc == null || mc.isBlank()
+                        ? JourneyPlanner.DEFAULT_MIN_TRANSFER_SECONDS : Integer.parseInt(mc.trim()) * 60;
+            } catch (NumberFormatException e) {
+                res.status(400);
+                return "bad-parameter";
+            }
+            if (departAfter < 0 || maxTransfers < 0 || maxTransfers > 8 || minTransferSeconds < 0) {
+                res.status(400);
+                return "bad-parameter";
+            }
+
+            List<JourneyPlanner.Journey> journeys =
+                    data.journeyPlanner.plan(origins, targets, departAfter, maxTransfers, minTransferSeconds);
+
+            StringBuilder json = new StringBuilder(1024);
+            json.append("{\"journeys\":[");
+            for (int i = 0; i < journeys.size(); i++) {
+                JourneyPlanner.Journey j = journeys.get(i);
+                if (i > 0) json.append(',');
+                json.append('{')
+                        .append("\"departureTime\":").append(jsonEscape(j.departureTime)).append(',')
+                        .append("\"arrivalTime\":").append(jsonEscape(j.arrivalTime)).append(',')
+                        .append("\"durationMinutes\":").append(j.durationMinutes).append(',')
+                        .append("\"transfers\":").append(j.transfers).append(',')
+                        .append("\"legs\":[");
+                for (int k = 0; k < j.legs.size(); k++) {
+                    JourneyPlanner.Leg l = j.legs.get(k);
+                    DirectTripFinder.Trip t = l.trip;
+                    if (k > 0) json.append(',');
+                    json.append('{')
+                            .append("\"from\":{\"id\":").append(jsonEscape(l.fromQuayId))
+                            .append(",\"name\":").append(jsonEscape(l.fromName)).append("},")
+                            .append("\"to\":{\"id\":").append(jsonEscape(l.toQuayId))
+                            .append(",\"name\":").append(jsonEscape(l.toName)).append("},")
+                            .append("\"serviceJourneyId\":").append(jsonEscape(t.serviceJourneyId)).append(',')
+                            .append("\"line\":").append(jsonEscape(t.line)).append(',')
+                            .append("\"direction\":").append(jsonEscape(t.direction)).append(',')
+                            .append("\"departureTime\":").append(jsonEscape(t.departureTime)).append(',')
+                            .append("\"arrivalTime\":").append(jsonEscape(t.arrivalTime)).append(',')
+                            .append("\"stopsBeforeDest\":").append(t.stopsBeforeDest).append(',')
+                            .append("\"durationMinutes\":").append(t.durationMinutes)
+                            .append('}');
+                }
+                json.append("]}");
+            }
+            json.append("]}");
+
+            res.type("application/json; charset=utf-8");
+            return json.toString();
+        });
 
-                DelaySimulator.DelayInfo d = DELAY_SIM.getDelay(t, fromId, toId);
+        get("/api/mock/profile", (req, res) -> {
 
+            MockData data = MOCK_DATA.get();
+            if (data == null) {
+                res.status(500);
+                return "mock-data-not-available";
+            }
+
+            List<String> fromIds = resolveQuays(data, req.queryParams("fromId"), req.queryParams("from"));
+            List<String> toIds   = resolveQuays(data, req.queryParams("toId"), req.queryParams("to"));
+            if (fromIds == null || toIds == null) {
+                res.status(400);
+                return "missing-from-or-to";
+            }
+
+            int[] origins = data.tripFinder.quayIndexes(fromIds);
+            int[] targets = data.tripFinder.quayIndexes(toIds);
+            if (origins.length == 0 || targets.length == 0) {
+                res.status(404);
+                return "no-stops-found";
+            }
+
+            String after  = req.queryParams("departAfter");
+            String before = req.queryParams("departBefore");
+            String mc     = req.queryParams("minTransferMinutes");
+            int departAfter  = after == null || after.isBlank() ? 0 : DirectTripFinder.parseTimeToSeconds(after.trim());
+            int departBefore = before == null || before.isBlank() ? 24 * 3600 : DirectTripFinder.parseTimeToSeconds(before.trim());
+            int minTransferSeconds;
+            try {
+                minTransferSeconds = mc == null || mc.isBlank()
+                        ? JourneyPlanner.DEFAULT_MIN_TRANSFER_SECONDS : Integer.parseInt(mc.trim()) * 60;
+            } catch (NumberFormatException e) {
+                res.status(400);
+                return "bad-parameter";
+            }
+            if (departAfter < 0 || departBefore < departAfter || minTransferSeconds < 0) {
+                res.status(400);
+                return "bad-parameter";
+            }
+
+            int earliest = data.connectionScan.earliestArrival(origins, targets, departAfter, minTransferSeconds);
+            List<ConnectionScan.ProfileEntry> profile =
+                    data.connectionScan.profile(origins, targets, departAfter, departBefore, minTransferSeconds);
+
+            StringBuilder json = new StringBuilder(512);
+            json.append('{')
+                    .append("\"departAfter\":").append(jsonEscape(DirectTripFinder.formatTime(departAfter))).append(',')
+                    .append("\"departBefore\":").append(jsonEscape(DirectTripFinder.formatTime(departBefore))).append(',')
+                    .append("\"earliestArrival\":").append(jsonEscape(DirectTripFinder.formatTime(earliest))).append(',')
+                    .append("\"profile\":[");
+            for (int i = 0; i < profile.size(); i++) {
+                ConnectionScan.ProfileEntry e = profile.get(i);
+                if (i > 0) json.append(',');
                 json.append('{')
-                        .append("\"serviceJourneyId\":").append(jsonEscape(t.serviceJourneyId)).append(',')
-                        .append("\"line\":").append(jsonEscape(t.line)).append(',')
-                        .append("\"direction\":").append(jsonEscape(t.direction)).append(',')
-                        .append("\"departureTime\":").append(jsonEscape(t.departureTime)).append(',')
-                        .append("\"arrivalTime\":").append(jsonEscape(t.arrivalTime)).append(',')
-                        .append("\"stopsBeforeDest\":").append(t.stopsBeforeDest).append(',')
-                        .append("\"durationMinutes\":").append(t.durationMinutes).append(',')
-                        .append("\"delayMinutes\":").append(d.delayMinutes).append(',')
-                        .append("\"newDeparture\":").append(d.newDeparture == null ? "null" : jsonEscape(d.newDeparture)).append(',')
-                        .append("\"newArrival\":").append(d.newArrival == null ? "null" : jsonEscape(d.newArrival))
+                        .append("\"fromId\":").append(jsonEscape(e.fromQuayId)).append(',')
+                        .append("\"serviceJourneyId\":").append(jsonEscape(e.serviceJourneyId)).append(',')
+                        .append("\"line\":").append(jsonEscape(e.line)).append(',')
+                        .append("\"departureTime\":").append(jsonEscape(e.departureTime)).append(',')
+                        .append("\"arrivalTime\":").append(jsonEscape(e.arrivalTime)).append(',')
+                        .append("\"durationMinutes\":").append(e.durationMinutes)
                         .append('}');
             }
-            json.append(']');
+            json.append("]}");
 
-            json.append('}');
+            res.type("application/json; charset=utf-8");
+            return json.toString();
+        });
+
+        get("/api/mock/reachable", (req, res) -> {
+
+            MockData data = MOCK_DATA.get();
+            if (data == null) {
+                res.status(500);
+                return "mock-data-not-available";
+            }
+
+            List<String> fromIds = resolveQuays(data, req.queryParams("fromId"), req.queryParams("from"));
+            if (fromIds == null) {
+                res.status(400);
+                return "missing-from";
+            }
+            int[] origins = data.tripFinder.quayIndexes(fromIds);
+            if (origins.length == 0) {
+                res.status(404);
+                return "no-stops-found";
+            }
+
+            String after = req.queryParams("departAfter");
+            String max   = req.queryParams("maxMinutes");
+            String mc    = req.queryParams("minTransferMinutes");
+            int departAfter = after == null || after.isBlank() ? 0 : DirectTripFinder.parseTimeToSeconds(after.trim());
+            int maxMinutes, minTransferSeconds;
+            try {
+                maxMinutes = max == null || max.isBlank() ? 60 : Integer.parseInt(max.trim());
+                minTransferSeconds = mc == null || mc.isBlank()
+                        ? JourneyPlanner.DEFAULT_MIN_TRANSFER_SECONDS : Integer.parseInt(mc.trim()) * 60;
+            } catch (NumberFormatException e) {
+                res.status(400);
+                return "bad-parameter";
+            }
+            if (departAfter < 0 || maxMinutes <= 0 || maxMinutes > 24 * 60 || minTransferSeconds < 0) {
+                res.status(400);
+                return "bad-parameter";
+            }
+
+            int[] arrival = data.connectionScan.reachable(origins, departAfter, maxMinutes * 60, minTransferSeconds);
+
+            // Sortert på reisetid; koordinatene er de samme som NearestStopFinder bruker
+            List<Integer> reached = new ArrayList<>();
+            for (int q = 0; q < data.stops.size(); q++) {
+                if (arrival[q] >= 0) reached.add(q);
+            }
+            reached.sort((a, b) -> Integer.compare(arrival[a], arrival[b]));
+
+            StringBuilder json = new StringBuilder(64 + 128 * reached.size());
+            json.append('{')
+                    .append("\"departAfter\":").append(jsonEscape(DirectTripFinder.formatTime(departAfter))).append(',')
+                    .append("\"maxMinutes\":").append(maxMinutes).append(',')
+                    .append("\"reachable\":[");
+            for (int i = 0; i < reached.size(); i++) {
+                int q = reached.get(i);
+                if (i > 0) json.append(',');
+                json.append('{')
+                        .append("\"id\":").append(jsonEscape(data.stops.id(q))).append(',')
+                        .append("\"name\":").append(jsonEscape(data.stops.name(q))).append(',');
+                if (data.stops.hasCoordinates(q)) {
+                    json.append("\"lat\":").append(data.stops.lat(q)).append(',')
+                            .append("\"lon\":").append(data.stops.lon(q)).append(',');
+                } else {
+                    json.append("\"lat\":null,\"lon\":null,");
+                }
+                json.append("\"arrivalTime\":").append(jsonEscape(DirectTripFinder.formatTime(arrival[q]))).append(',')
+                        .append("\"minutes\":").append((arrival[q] - departAfter) / 60)
+                        .append('}');
+            }
+            json.append("]}");
 
             res.type("application/json; charset=utf-8");
             return json.toString();
@@ -612,7 +1160,8 @@ public class WebApp {
                 return "missing-lat-or-lon";
             }
 
-            if (NEAREST_STOP_FINDER == null || NEAREST_STOP_FINDER.isEmpty()) {
+            MockData data = MOCK_DATA.get();
+            if (data == null || data.nearestStops.isEmpty()) {
                 res.status(500);
                 return "nearest-stop-not-available";
             }
@@ -625,8 +1174,12 @@ public class WebApp {
                 res.status(400);
                 return "bad-lat-or-lon";
             }
+            if (!isLatLon(lat, lon)) {
+                res.status(400);
+                return "bad-lat-or-lon";
+            }
 
-            NearestStopFinder.Stop s = NEAREST_STOP_FINDER.findNearest(lat, lon);
+            NearestStopFinder.Stop s = data.nearestStops.findNearest(lat, lon);
             if (s == null) {
                 res.status(404);
                 return "no-stops-have-coordinates";
@@ -644,6 +1197,334 @@ public class WebApp {
             return json.toString();
         });
 
+        // GPS-spor -> quay-besøk, strømmet som NDJSON
+        post("/api/mock/snap", (req, res) -> {
+            MockData data = MOCK_DATA.get();
+            if (data == null || data.nearestStops.isEmpty()) {
+                res.status(500);
+                return "nearest-stop-not-available";
+            }
+
+            // Fra URL-en direkte: queryParams ville lest hele kroppen som skjema
+            // hvis klienten sender application/x-www-form-urlencoded
+            double tolerance = TraceSnapper.DEFAULT_TOLERANCE_METERS;
+            String tolStr = urlQueryParam(req.raw().getQueryString(), "tolerance");
+            if (tolStr != null && !tolStr.isBlank()) {
+                try {
+                    tolerance = Double.parseDouble(tolStr.trim());
+                } catch (NumberFormatException e) {
+                    tolerance = -1;
+                }
+                if (!(tolerance >= 0 && tolerance <= TraceSnapper.MAX_TOLERANCE_METERS)) {
+                    res.status(400);
+                    return "bad-tolerance";
+                }
+            }
+
+            try (JsonPullReader r = new JsonPullReader(req.raw().getInputStream())) {
+                try {
+                    r.beginArray();
+                } catch (RuntimeException e) {
+                    res.status(400);
+                    return "bad-trace: " + e.getMessage();
+                }
+
+                // Én linje per besøk i sporets rekkefølge, til slutt en oppsummering
+                res.status(200);
+                res.type("application/x-ndjson; charset=utf-8");
+                OutputStream out = new BufferedOutputStream(res.raw().getOutputStream(), 16 * 1024);
+                long t0 = System.nanoTime();
+                try {
+                    TraceSnapper.Summary sum = TraceSnapper.run(r, data.nearestStops, tolerance, BATCH_POOL,
+                            new TraceSnapper.Sink() {
+                                @Override
+                                public void visit(TraceSnapper.Visit v) throws IOException {
+                                    StringBuilder json = new StringBuilder(192);
+                                    json.append("{\"quayId\":").append(jsonEscape(v.quayId))
+                                            .append(",\"name\":").append(jsonEscape(v.name))
+                                            .append(",\"firstIndex\":").append(v.firstIndex)
+                                            .append(",\"points\":").append(v.points)
+                                            .append(",\"from\":").append(timeJson(v.firstTime, v.firstNumeric))
+                                            .append(",\"to\":").append(timeJson(v.lastTime, v.lastNumeric))
+                                            .append(",\"minDistanceMeters\":").append(Math.round(v.minDistanceMeters))
+                                            .append("}\n");
+                                    out.write(json.toString().getBytes(StandardCharsets.UTF_8));
+                                }
+
+                                @Override
+                                public void flush() throws IOException {
+                                    out.flush();
+                                }
+                            });
+                    out.write(("{\"summary\":{\"points\":" + sum.points + ",\"matched\":" + sum.matched
+                            + ",\"visits\":" + sum.visits + ",\"toleranceMeters\":" + tolerance + "}}\n")
+                            .getBytes(StandardCharsets.UTF_8));
+                    System.out.println("🛰️ /api/mock/snap: " + sum.points + " punkter, " + sum.visits + " besøk, "
+                            + (System.nanoTime() - t0) / 1_000_000 + " ms");
+                } catch (RuntimeException e) {
+                    out.write(("{\"error\":" + jsonEscape("bad-trace: " + e.getMessage()) + "}\n")
+                            .getBytes(StandardCharsets.UTF_8));
+                }
+                out.flush();
+            } catch (IOException e) {
+                System.out.println("🔌 /api/mock/snap: klienten koblet fra, stopper snappingen");
+            }
+            return "";
+        });
+
+        // k nærmeste stopp, eventuelt bare innen radius (meter)
+        get("/api/mock/nearestStops", (req, res) -> {
+            String latStr = req.queryParams("lat");
+            String lonStr = req.queryParams("lon");
+            if (latStr == null || lonStr == null || latStr.isBlank() || lonStr.isBlank()) {
+                res.status(400);
+                return "missing-lat-or-lon";
+            }
+
+            MockData data = MOCK_DATA.get();
+            if (data == null || data.nearestStops.isEmpty()) {
+                res.status(500);
+                return "nearest-stop-not-available";
+            }
+
+            double lat, lon;
+            try {
+                lat = Double.parseDouble(latStr.trim());
+                lon = Double.parseDouble(lonStr.trim());
+            } catch (NumberFormatException e) {
+                res.status(400);
+                return "bad-lat-or-lon";
+            }
+            if (!isLatLon(lat, lon)) {
+                res.status(400);
+                return "bad-lat-or-lon";
+            }
+
+            String kStr = req.queryParams("k");
+            String radiusStr = req.queryParams("radius");
+            // Tom radius= regnes som ikke oppgitt
+            boolean hasRadius = radiusStr != null && !radiusStr.isBlank();
+            int k;
+            double radius = -1;
+            try {
+                k = kStr == null || kStr.isBlank() ? (hasRadius ? 100 : 5) : Integer.parseInt(kStr.trim());
+                if (hasRadius) radius = Double.parseDouble(radiusStr.trim());
+            } catch (NumberFormatException e) {
+                res.status(400);
+                return "bad-k-or-radius";
+            }
+            if (k <= 0 || k > 100 || (hasRadius && !(radius >= 0 && radius <= 50_000))) {
+                res.status(400);
+                return "bad-k-or-radius";
+            }
+
+            List<NearestStopFinder.Nearby> hits = radius >= 0
+                    ? data.nearestStops.withinRadius(lat, lon, radius)
+                    : data.nearestStops.findKNearest(lat, lon, k);
+            if (hits.size() > k) hits = hits.subList(0, k);
+
+            StringBuilder json = new StringBuilder(64 + 128 * hits.size());
+            json.append('[');
+            for (int i = 0; i < hits.size(); i++) {
+                NearestStopFinder.Nearby h = hits.get(i);
+                if (i > 0) json.append(',');
+                json.append('{')
+                        .append("\"id\":").append(jsonEscape(h.stop.id)).append(',')
+                        .append("\"name\":").append(jsonEscape(h.stop.name)).append(',')
+                        .append("\"lat\":").append(h.stop.lat).append(',')
+                        .append("\"lon\":").append(h.stop.lon).append(',')
+                        .append("\"distanceMeters\":").append(Math.round(h.distanceMeters))
+                        .append('}');
+            }
+            json.append(']');
+
+            res.type("application/json; charset=utf-8");
+            return json.toString();
+        });
+
+        // Direkte turer fra en posisjon: alle quays innen gangavstand er mulige start-quays
+        get("/api/mock/tripsFromLocation", (req, res) -> {
+            String latStr = req.queryParams("lat");
+            String lonStr = req.queryParams("lon");
+            if (latStr == null || lonStr == null || latStr.isBlank() || lonStr.isBlank()) {
+                res.status(400);
+                return "missing-lat-or-lon";
+            }
+
+            MockData data = MOCK_DATA.get();
+            if (data == null || data.nearestStops.isEmpty()) {
+                res.status(500);
+                return "mock-data-not-available";
+            }
+
+            List<String> toIds = resolveQuays(data, req.queryParams("toId"), req.queryParams("to"));
+            if (toIds == null) {
+                res.status(400);
+                return "missing-to";
+            }
+            int[] targets = data.tripFinder.quayIndexes(toIds);
+            if (targets.length == 0) {
+                res.status(404);
+                return "no-stops-found";
+            }
+
+            double lat, lon, walkMeters;
+            String walkStr = req.queryParams("walkMeters");
+            try {
+                lat = Double.parseDouble(latStr.trim());
+                lon = Double.parseDouble(lonStr.trim());
+                walkMeters = walkStr == null || walkStr.isBlank() ? 500 : Double.parseDouble(walkStr.trim());
+            } catch (NumberFormatException e) {
+                res.status(400);
+                return "bad-parameter";
+            }
+            if (!isLatLon(lat, lon)) {
+                res.status(400);
+                return "bad-lat-or-lon";
+            }
+            if (!(walkMeters >= 0 && walkMeters <= 2000)) {
+                res.status(400);
+                return "bad-walkMeters";
+            }
+
+            DirectTripFinder.TripWindow window = parseTripWindow(req);
+            if (window == null) {
+                res.status(400);
+                return "bad-time-window";
+            }
+            int departAfter = Math.max(0, window.departAfter);
+            if (window.limit <= 0) {
+                window = new DirectTripFinder.TripWindow(departAfter, window.arriveBefore, 20, null);
+            }
+
+            // Quays uten avganger i rutedataene kan ikke være start-quays
+            List<NearestStopFinder.Nearby> nearby = new ArrayList<>();
+            for (NearestStopFinder.Nearby h : data.nearestStops.withinRadius(lat, lon, walkMeters)) {
+                if (data.tripFinder.quayIndexOf(h.stop.id) >= 0) nearby.add(h);
+            }
+            int[] origins = new int[nearby.size()];
+            int[] readyAt = new int[nearby.size()];
+            int[] walkSeconds = new int[nearby.size()];
+            for (int i = 0; i < origins.length; i++) {
+                NearestStopFinder.Nearby h = nearby.get(i);
+                origins[i] = data.tripFinder.quayIndexOf(h.stop.id);
+                walkSeconds[i] = (int) Math.ceil(h.distanceMeters / WALK_METERS_PER_SECOND);
+                readyAt[i] = departAfter + walkSeconds[i];
+            }
+
+            List<DirectTripFinder.OriginTrip> trips = data.tripFinder.findTripsFrom(origins, readyAt, targets, window);
+
+            StringBuilder json = new StringBuilder(256 + 96 * nearby.size() + 384 * trips.size());
+            json.append('{')
+                    .append("\"departAfter\":").append(jsonEscape(DirectTripFinder.formatTime(departAfter))).append(',')
+                    .append("\"walkMeters\":").append(Math.round(walkMeters)).append(',')
+                    .append("\"origins\":[");
+            for (int i = 0; i < nearby.size(); i++) {
+                NearestStopFinder.Nearby h = nearby.get(i);
+                if (i > 0) json.append(',');
+                json.append('{')
+                        .append("\"id\":").append(jsonEscape(h.stop.id)).append(',')
+                        .append("\"name\":").append(jsonEscape(h.stop.name)).append(',')
+                        .append("\"walkMeters\":").append(Math.round(h.distanceMeters)).append(',')
+                        .append("\"walkMinutes\":").append((walkSeconds[i] + 59) / 60)
+                        .append('}');
+            }
+            json.append("],\"trips\":[");
+            for (int i = 0; i < trips.size(); i++) {
+                DirectTripFinder.OriginTrip t = trips.get(i);
+                NearestStopFinder.Nearby h = nearby.get(t.origin);
+                int leaveAt = DirectTripFinder.parseTimeToSeconds(t.trip.departureTime) - walkSeconds[t.origin];
+                if (i > 0) json.append(',');
+                json.append('{')
+                        .append("\"fromId\":").append(jsonEscape(t.fromQuayId)).append(',')
+                        .append("\"fromName\":").append(jsonEscape(h.stop.name)).append(',')
+                        .append("\"toId\":").append(jsonEscape(t.toQuayId)).append(',')
+                        .append("\"walkMeters\":").append(Math.round(h.distanceMeters)).append(',')
+                        .append("\"walkMinutes\":").append((walkSeconds[t.origin] + 59) / 60).append(',')
+                        .append("\"leaveAt\":").append(jsonEscape(DirectTripFinder.formatTime(leaveAt))).append(',');
+                appendTripFields(json, t.trip, t.fromQuayId, t.toQuayId);
+                json.append('}');
+            }
+            json.append("]}");
+
+            res.type("application/json; charset=utf-8");
+            return json.toString();
+        });
+
+        get("/api/mock/departures", (req, res) -> {
+
+            MockData data = MOCK_DATA.get();
+            if (data == null) {
+                res.status(500);
+                return "mock-data-not-available";
+            }
+
+            String id = req.queryParams("quay_id");
+            if (id == null || id.isBlank()) {
+                res.status(400);
+                return "missing-quay_id";
+            }
+            id = StopRegistry.normalizeQuayId(id.trim());
+            if (data.tripFinder.quayIndexOf(id) < 0) {
+                res.status(404);
+                return "unknown-quay";
+            }
+
+            // Uten "after" brukes klokka nå (norsk tid)
+            String afterStr = req.queryParams("after");
+            boolean now = afterStr == null || afterStr.isBlank();
+            int after = now
+                    ? LocalTime.now(ZoneId.of("Europe/Oslo")).toSecondOfDay()
+                    : DirectTripFinder.parseTimeToSeconds(afterStr.trim());
+            int limit = 10;
+            try {
+                String lim = req.queryParams("limit");
+                if (lim != null && !lim.isBlank()) limit = Integer.parseInt(lim.trim());
+            } catch (NumberFormatException e) {
+                limit = -1;
+            }
+            if (after < 0 || limit <= 0 || limit > 500) {
+                res.status(400);
+                return "bad-parameter";
+            }
+
+            List<DirectTripFinder.Departure> deps;
+            if (now && after + 24 * 3600 <= data.tripFinder.lastDeparture(id)) {
+                // Etter midnatt: gårsdagens turer står som 24:xx, så de kommer først,
+                // deretter dagens fra klokka nå
+                deps = data.tripFinder.departures(id, after + 24 * 3600, limit);
+                if (deps.size() < limit) {
+                    for (DirectTripFinder.Departure d : data.tripFinder.departures(id, after, limit - deps.size())) {
+                        if (DirectTripFinder.parseTimeToSeconds(d.departureTime) < after + 24 * 3600) deps.add(d);
+                    }
+                }
+            } else {
+                deps = data.tripFinder.departures(id, after, limit);
+            }
+
+            StringBuilder json = new StringBuilder(128 + 160 * deps.size());
+            json.append("{\"quay\":{")
+                    .append("\"id\":").append(jsonEscape(id)).append(',')
+                    .append("\"name\":").append(jsonEscape(data.stopSearch.getStopName(id)))
+                    .append("},\"after\":").append(jsonEscape(DirectTripFinder.formatTime(after)))
+                    .append(",\"departures\":[");
+            for (int i = 0; i < deps.size(); i++) {
+                DirectTripFinder.Departure d = deps.get(i);
+                if (i > 0) json.append(',');
+                json.append('{')
+                        .append("\"serviceJourneyId\":").append(jsonEscape(d.serviceJourneyId)).append(',')
+                        .append("\"line\":").append(jsonEscape(d.line)).append(',')
+                        .append("\"direction\":").append(jsonEscape(d.direction)).append(',')
+                        .append("\"destination\":").append(jsonEscape(d.destination)).append(',')
+                        .append("\"departureTime\":").append(jsonEscape(d.departureTime))
+                        .append('}');
+            }
+            json.append("]}");
+
+            res.type("application/json; charset=utf-8");
+            return json.toString();
+        });
+
         get("/api/entur/departures", (req, res) -> {
 
             String id = req.queryParams("quay_id");
@@ -659,7 +1540,7 @@ public class WebApp {
             } catch (Exception ignored) {}
 
             try {
-                id = normalizeQuayId(id.trim());
+                id = StopRegistry.normalizeQuayId(id.trim());
                 String json = ENTUR_CLIENT.fetchDepartures(id, limit);
                 res.type("application/json; charset=utf-8");
                 return json;
@@ -0,0 +1,114 @@
+package no.hia.oblig4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+/**
+ * Enkel mikrobenchmark for {@link GeoKernel}: avstand fra mange søkepunkter
+ * til alle punktene i et syntetisk datasett, med tre varianter:
+ * <ol>
+ *   <li>den gamle løkka: haversine med sin/cos/atan2 per par over en List&lt;Stop&gt;</li>
+ *   <li>skalar kjerne over forhåndsberegnede arrays</li>
+ *   <li>vektorisert kjerne (bare med -Pvector og --add-modules jdk.incubator.vector)</li>
+ * </ol>
+ * Hver variant varmes opp før den måles, og en sjekksum skrives ut så
+ * JIT-en ikke kan fjerne arbeidet. Kjernene gir haversine-leddet a, ikke
+ * meter; det er det søkene sammenligner på, og bare svarene regnes om.
+ *
+ * Ligger under src/test, så den ikke kommer med i den ferdige JAR-en:
+ * {@code mvn -Pvector test-compile}, deretter
+ * {@code java --add-modules jdk.incubator.vector -cp target/classes:target/test-classes no.hia.oblig4.GeoKernelBenchmark [punkter] [søk]}
+ */
+public final class GeoKernelBenchmark {
+
+    private GeoKernelBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        // Punkter spredt over Sør-Norge, søkepunkter i samme område
+        SplittableRandom rnd = new SplittableRandom(42);
+        double[] lat = new double[n];
+        double[] lon = new double[n];
+        List<NearestStopFinder.Stop> stops = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            lat[i] = 58.0 + rnd.nextDouble() * 5.0;
+            lon[i] = 5.0 + rnd.nextDouble() * 7.0;
+            stops.add(new NearestStopFinder.Stop("P" + i, "P" + i, lat[i], lon[i]));
+        }
+        double[][] q = new double[queries][];
+        for (int i = 0; i < queries; i++) q[i] = new double[] { 58.0 + rnd.nextDouble() * 5.0, 5.0 + rnd.nextDouble() * 7.0 };
+
+        GeoKernel.Points points = new GeoKernel.Points(lat, lon);
+        double[] out = new double[n];
+
+        System.out.println("📏 " + n + " punkter x " + queries + " søk, Vector API: "
+                + (GeoKernel.VECTOR ? "ja (" + GeoKernel.VECTOR_KERNEL.lanes() + " lanes)" : "nei"));
+
+        double loop = measure("gammel løkke (List<Stop>)", n, queries, () -> {
+            double sum = 0;
+            for (double[] p : q) {
+                for (NearestStopFinder.Stop s : stops) sum += haversineMeters(p[0], p[1], s.lat, s.lon);
+            }
+            return sum;
+        });
+        double scalar = measure("skalar kjerne", n, queries, () -> {
+            double sum = 0;
+            for (double[] p : q) {
+                GeoKernel.scalarTerms(points, 0, n, new GeoKernel.Query(p[0], p[1]), out, 0);
+                sum += out[n / 2] + out[n - 1];
+            }
+            return sum;
+        });
+        System.out.println(String.format(Locale.ROOT, "   skalar kjerne: %.1fx raskere enn gammel løkke", loop / scalar));
+
+        if (GeoKernel.VECTOR) {
+            double vector = measure("vektorisert kjerne", n, queries, () -> {
+                double sum = 0;
+                for (double[] p : q) {
+                    GeoKernel.VECTOR_KERNEL.terms(points, 0, n, new GeoKernel.Query(p[0], p[1]), out);
+                    sum += out[n / 2] + out[n - 1];
+                }
+                return sum;
+            });
+            System.out.println(String.format(Locale.ROOT, "   vektorisert kjerne: %.1fx raskere enn gammel løkke, %.1fx enn skalar",
+                    loop / vector, scalar / vector));
+        }
+    }
+
+    private interface Run {
+        double run();
+    }
+
+    /** Nanosekunder per par, median av fem målinger etter tre oppvarminger. */
+    private static double measure(String name, int n, int queries, Run run) {
+        double sink = 0;
+        for (int i = 0; i < 3; i++) sink += run.run();
+        double[] ns = new double[5];
+        for (int i = 0; i < ns.length; i++) {
+            long t0 = System.nanoTime();
+            sink += run.run();
+            ns[i] = (System.nanoTime() - t0) / ((double) n * queries);
+        }
+        Arrays.sort(ns);
+        System.out.println(String.format(Locale.ROOT, "   %-28s %6.2f ns/par  (sjekksum %.3e)", name, ns[2], sink));
+        return ns[2];
+    }
+
+    /** Den tidligere NearestStopFinder.haversineMeters, som sammenligningsgrunnlag. */
+    private static double haversineMeters(double lat1, double lon1, double lat2, double lon2) {
+        final double R = 6371000.0;
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
+                * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+        return R * c;
+    }
+}
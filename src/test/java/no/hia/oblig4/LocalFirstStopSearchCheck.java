@@ -0,0 +1,139 @@
+package no.hia.oblig4;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Sjekker {@link LocalFirstStopSearch} mot en lokal geocoder-stub
+ * (com.sun.net.httpserver) i stedet for Entur:
+ * <ol>
+ *   <li>treg stub: svaret kommer etter budsjettet, søket svarer med bare lokale treff</li>
+ *   <li>stub med 500: status error, bare lokale treff</li>
+ *   <li>vanlig svar: geocoder-treff slås sammen med de lokale, og steder med
+ *       samme navn, samme id eller uten NSR-id tas ikke med</li>
+ * </ol>
+ * Prosjektet har ikke JUnit, så dette er et vanlig program som avslutter med
+ * status 1 hvis en sjekk feiler: {@code mvn test-compile}, deretter
+ * {@code java -cp target/classes:target/test-classes no.hia.oblig4.LocalFirstStopSearchCheck}
+ */
+public final class LocalFirstStopSearchCheck {
+
+    private static final long BUDGET_MILLIS = 300;
+    private static final long SLOW_MILLIS = 2000;
+
+    private static final String FEATURES = """
+            {"type":"FeatureCollection","features":[
+              {"properties":{"id":"NSR:StopPlace:10","name":"Fjeldberg"}},
+              {"properties":{"id":"NSR:StopPlace:11","name":"Fjeldbergveien"}},
+              {"properties":{"id":"NSR:StopPlace:11","name":"Fjeldbergveien"}},
+              {"properties":{"id":"OSM:TopographicPlace:12","name":"Fjeldbergåsen"}},
+              {"properties":{"id":"NSR:StopPlace:13","name":"Fjeldstad"}}
+            ]}""";
+
+    private static final List<String> failures = new ArrayList<>();
+
+    private LocalFirstStopSearchCheck() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        StopSearch local = new StopSearch(new StopRegistry(
+                new String[] { "NSR:Quay:1", "NSR:Quay:2", "NSR:Quay:3" },
+                new String[] { "Fjeldberg", "Fjeldberg", "Fredrikstad bussterminal" },
+                new double[] { 59.21958, 59.21960, 59.20990 },
+                new double[] { 10.92069, 10.92080, 10.94890 }));
+
+        AtomicReference<String> mode = new AtomicReference<>("ok");
+        ExecutorService executor = Executors.newCachedThreadPool();
+        HttpServer stub = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        stub.createContext("/autocomplete", ex -> {
+            try (ex) {
+                switch (mode.get()) {
+                    case "slow" -> {
+                        sleep(SLOW_MILLIS);
+                        respond(ex, 200, FEATURES);
+                    }
+                    case "error" -> respond(ex, 500, "{\"error\":\"stub\"}");
+                    default -> respond(ex, 200, FEATURES);
+                }
+            }
+        });
+        stub.setExecutor(executor);
+        stub.start();
+
+        try {
+            String endpoint = "http://127.0.0.1:" + stub.getAddress().getPort() + "/autocomplete";
+            LocalFirstStopSearch search = new LocalFirstStopSearch(
+                    new EnturClient("oblig4-test", endpoint), BUDGET_MILLIS, 5);
+
+            mode.set("slow");
+            LocalFirstStopSearch.Result slow = search.search(local, "fjeld", 10);
+            check(slow.geocoder.equals("timeout"), "treg stub gir timeout, fikk " + slow.geocoder);
+            check(slow.millis < SLOW_MILLIS / 2, "treg stub holder budsjettet, brukte " + slow.millis + " ms");
+            check(ids(slow).equals(List.of("NSR:Quay:1", "NSR:Quay:2")), "treg stub gir bare lokale treff: " + ids(slow));
+
+            mode.set("error");
+            LocalFirstStopSearch.Result error = search.search(local, "fjeld", 10);
+            check(error.geocoder.equals("error"), "500 fra stub gir error, fikk " + error.geocoder);
+            check(ids(error).equals(List.of("NSR:Quay:1", "NSR:Quay:2")), "500 fra stub gir bare lokale treff: " + ids(error));
+
+            mode.set("ok");
+            LocalFirstStopSearch.Result ok = search.search(local, "fjeld", 10);
+            check(ok.geocoder.equals("ok"), "vanlig svar gir ok, fikk " + ok.geocoder);
+            check(ids(ok).equals(List.of("NSR:Quay:1", "NSR:Quay:2", "NSR:StopPlace:11", "NSR:StopPlace:13")),
+                    "lokale treff først, så nye NSR-steder uten duplikater: " + ids(ok));
+            check(ok.hits.get(2).source.equals("entur") && ok.hits.get(0).source.equals("local"),
+                    "kilde settes per treff");
+
+            LocalFirstStopSearch.Result capped = search.search(local, "fjeld", 3);
+            check(ids(capped).equals(List.of("NSR:Quay:1", "NSR:Quay:2", "NSR:StopPlace:11")),
+                    "limit gjelder også sammenslåtte treff: " + ids(capped));
+        } finally {
+            stub.stop(0);
+            executor.shutdownNow();
+        }
+
+        if (failures.isEmpty()) {
+            System.out.println("✅ LocalFirstStopSearch: alle sjekker ok");
+        } else {
+            failures.forEach(f -> System.out.println("❌ " + f));
+            System.exit(1);
+        }
+    }
+
+    private static List<String> ids(LocalFirstStopSearch.Result r) {
+        List<String> ids = new ArrayList<>();
+        for (LocalFirstStopSearch.Hit h : r.hits) ids.add(h.id);
+        return ids;
+    }
+
+    private static void check(boolean ok, String what) {
+        if (!ok) failures.add(what);
+    }
+
+    private static void respond(HttpExchange ex, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", "application/json");
+        ex.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = ex.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}